@@ -0,0 +1,249 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.view.PagerAdapter;
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import java.util.concurrent.Executor;
+
+/**
+ * {@link PagerAdapter} whose pages are built and bound on a background executor, so a
+ * {@link LoopViewPager} never waits on binding during a swipe.
+ * <p>
+ * Each page is a host {@link FrameLayout} added to the pager right away, showing the view from
+ * {@link #createPlaceholder(Context, int)} until {@link #buildPage(Context, int)} has finished;
+ * then the built view replaces the placeholder on the main thread. Pages within
+ * {@link #setPrefetchDistance(int) the prefetch distance} of the current page, counted around the
+ * loop, are built ahead of time, so they are usually ready before the pager asks for them.
+ */
+public abstract class AsyncPagerAdapter extends PagerAdapter {
+
+    public static final int DEFAULT_PREFETCH_DISTANCE = 2;
+
+    private final Context context;
+    private final Executor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private int prefetchDistance = DEFAULT_PREFETCH_DISTANCE;
+
+    // Finished pages nobody has attached yet, by position
+    private final SparseArray<View> readyPages = new SparseArray<>();
+    // Builds still running, by position
+    private final SparseArray<Build> pendingBuilds = new SparseArray<>();
+    // Pages held by the pager, by position
+    private final SparseArray<Host> liveHosts = new SparseArray<>();
+    // Bumped when the data changes, so results of older builds are dropped
+    private int generation;
+
+    public AsyncPagerAdapter(Context context) {
+        this(context, AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    public AsyncPagerAdapter(Context context, Executor executor) {
+        this.context = context;
+        this.executor = executor;
+    }
+
+    /**
+     * Build and bind the page at {@code position}. Called on the executor, so the view must be
+     * created detached and must not touch anything owned by the main thread.
+     */
+    protected abstract View buildPage(Context context, int position);
+
+    /**
+     * @return a cheap view shown while the page at {@code position} is being built, or null to
+     * leave the page empty. Called on the main thread.
+     */
+    protected View createPlaceholder(Context context, int position) {
+        return null;
+    }
+
+    /**
+     * Set how many pages on each side of the current one are built ahead of time.
+     */
+    public void setPrefetchDistance(int distance) {
+        this.prefetchDistance = distance;
+    }
+
+    /**
+     * Start building the page at {@code position} unless it is built, being built or on screen.
+     */
+    public void prefetch(int position) {
+        if (this.readyPages.get(position) == null && this.pendingBuilds.get(position) == null
+                && this.liveHosts.get(position) == null) {
+            startBuild(position, null);
+        }
+    }
+
+    /**
+     * @return true if the page at {@code position} is built and waiting to be attached.
+     */
+    public boolean isPageReady(int position) {
+        return this.readyPages.get(position) != null;
+    }
+
+    @Override
+    public Object instantiateItem(ViewGroup container, int position) {
+        Host host = new Host(this.context, position, this.generation);
+        View page = this.readyPages.get(position);
+        if (page != null) {
+            this.readyPages.remove(position);
+            host.addView(page);
+        } else {
+            View placeholder = createPlaceholder(this.context, position);
+            if (placeholder != null) {
+                host.addView(placeholder);
+            }
+            Build build = this.pendingBuilds.get(position);
+            if (build != null && build.host == null) {
+                // Prefetched but not finished yet: let it fill this host
+                build.host = host;
+                host.build = build;
+            } else {
+                startBuild(position, host);
+            }
+        }
+        this.liveHosts.put(position, host);
+        container.addView(host);
+        return host;
+    }
+
+    @Override
+    public void destroyItem(ViewGroup container, int position, Object object) {
+        Host host = (Host) object;
+        if (host.build != null) {
+            // Still wanted soon, most likely; the result goes to the ready pages
+            host.build.host = null;
+            host.build = null;
+        }
+        if (this.liveHosts.get(host.position) == host) {
+            this.liveHosts.remove(host.position);
+        }
+        container.removeView(host);
+    }
+
+    @Override
+    public void setPrimaryItem(ViewGroup container, int position, Object object) {
+        if (object == null) {
+            return;
+        }
+        // The host knows its own position; the pager's may count mirror pages
+        int current = ((Host) object).position;
+        int count = getCount();
+        if (count == 0) {
+            return;
+        }
+        trimReadyPages(current, count);
+        for (int distance = 1; distance <= Math.min(this.prefetchDistance, count / 2); distance++) {
+            prefetch((current + distance) % count);
+            prefetch((current - distance + count) % count);
+        }
+    }
+
+    @Override
+    public boolean isViewFromObject(View view, Object object) {
+        return view == object;
+    }
+
+    /**
+     * Hosts from before the last {@link #notifyDataSetChanged()} lost their builds and may show
+     * stale pages, so they are replaced with freshly built ones.
+     */
+    @Override
+    public int getItemPosition(Object object) {
+        return ((Host) object).generation == this.generation ? POSITION_UNCHANGED : POSITION_NONE;
+    }
+
+    @Override
+    public void notifyDataSetChanged() {
+        this.generation++;
+        this.readyPages.clear();
+        for (int i = 0; i < this.pendingBuilds.size(); i++) {
+            Build build = this.pendingBuilds.valueAt(i);
+            if (build.host != null) {
+                build.host.build = null;
+            }
+        }
+        this.pendingBuilds.clear();
+        super.notifyDataSetChanged();
+    }
+
+    private void startBuild(int position, Host host) {
+        Build build = new Build(position, this.generation);
+        build.host = host;
+        if (host != null) {
+            host.build = build;
+        }
+        this.pendingBuilds.put(position, build);
+        this.executor.execute(build);
+    }
+
+    /**
+     * Drop ready pages that scrolled out of the prefetch distance.
+     */
+    private void trimReadyPages(int current, int count) {
+        for (int i = this.readyPages.size() - 1; i >= 0; i--) {
+            int distance = Math.abs(this.readyPages.keyAt(i) - current);
+            if (Math.min(distance, count - distance) > this.prefetchDistance) {
+                this.readyPages.removeAt(i);
+            }
+        }
+    }
+
+    private void onBuilt(Build build, View page) {
+        if (build.generation != this.generation) {
+            return;
+        }
+        if (this.pendingBuilds.get(build.position) == build) {
+            this.pendingBuilds.remove(build.position);
+        }
+        Host host = build.host;
+        if (host != null) {
+            host.build = null;
+            host.removeAllViews();
+            host.addView(page);
+        } else {
+            this.readyPages.put(build.position, page);
+        }
+    }
+
+    private final class Build implements Runnable {
+        final int position;
+        final int generation;
+        // Host waiting for the page; only touched on the main thread
+        Host host;
+
+        Build(int position, int generation) {
+            this.position = position;
+            this.generation = generation;
+        }
+
+        @Override
+        public void run() {
+            final View page = buildPage(context, this.position);
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onBuilt(Build.this, page);
+                }
+            });
+        }
+    }
+
+    private static final class Host extends FrameLayout {
+        final int position;
+        final int generation;
+        Build build;
+
+        Host(Context context, int position, int generation) {
+            super(context);
+            this.position = position;
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Indicator colors for every position and selection offset, blended once up front so a frame
+ * resolves its color with a table lookup. Each position gets a ramp of {@link #STEPS} colors
+ * from its own color to the next position's; positions with the same pair of colors share a ramp.
+ * <p>
+ * Kept free of Android dependencies like {@link LoopMath}.
+ */
+final class ColorGradientTable {
+
+    /**
+     * Number of quantized offsets per ramp.
+     */
+    static final int STEPS = 64;
+
+    private static final float[] SRGB_TO_LINEAR = new float[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            float c = i / 255f;
+            SRGB_TO_LINEAR[i] = c <= 0.04045f
+                    ? c / 12.92f
+                    : (float) Math.pow((c + 0.055f) / 1.055f, 2.4f);
+        }
+    }
+
+    private final int[][] mRamps;
+
+    /**
+     * @param colors indicator color of each position; the last position blends into the first.
+     * @param linear blend premultiplied colors in linear light instead of blending the opaque
+     *               sRGB channels directly.
+     */
+    ColorGradientTable(int[] colors, boolean linear) {
+        final int count = colors.length;
+        mRamps = new int[count][];
+        HashMap<Long, int[]> ramps = new HashMap<>();
+        for (int position = 0; position < count; position++) {
+            int from = colors[position];
+            int to = colors[(position + 1) % count];
+            Long pair = ((long) from << 32) | (to & 0xFFFFFFFFL);
+            int[] ramp = ramps.get(pair);
+            if (ramp == null) {
+                ramp = new int[STEPS];
+                if (from == to) {
+                    // Nothing to blend; blendColors would also make a translucent color opaque
+                    Arrays.fill(ramp, from);
+                } else {
+                    for (int step = 0; step < STEPS; step++) {
+                        float ratio = step / (float) (STEPS - 1);
+                        ramp[step] = linear
+                                ? blendLinear(to, from, ratio)
+                                : LoopMath.blendColors(to, from, ratio);
+                    }
+                }
+                ramps.put(pair, ramp);
+            }
+            mRamps[position] = ramp;
+        }
+    }
+
+    int getCount() {
+        return mRamps.length;
+    }
+
+    /**
+     * @return the indicator color {@code offset} of the way from {@code position} to the next
+     * position.
+     */
+    int colorAt(int position, float offset) {
+        return mRamps[position][(int) (offset * (STEPS - 1) + 0.5f)];
+    }
+
+    /**
+     * Blend premultiplied, linear-light versions of {@code color1} and {@code color2}, keeping the
+     * alpha.
+     *
+     * @param ratio of which to blend. 1.0 will return {@code color1}, 0.0 will return
+     *              {@code color2}.
+     */
+    static int blendLinear(int color1, int color2, float ratio) {
+        final float inverseRatio = 1f - ratio;
+        final float a1 = (color1 >>> 24) / 255f;
+        final float a2 = (color2 >>> 24) / 255f;
+        final float a = a1 * ratio + a2 * inverseRatio;
+        if (a <= 0f) {
+            return 0;
+        }
+        int argb = Math.round(a * 255f) << 24;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            float c1 = SRGB_TO_LINEAR[(color1 >> shift) & 0xFF] * a1;
+            float c2 = SRGB_TO_LINEAR[(color2 >> shift) & 0xFF] * a2;
+            argb |= toSrgb((c1 * ratio + c2 * inverseRatio) / a) << shift;
+        }
+        return argb;
+    }
+
+    private static int toSrgb(float linear) {
+        float c = linear <= 0.0031308f
+                ? linear * 12.92f
+                : 1.055f * (float) Math.pow(linear, 1 / 2.4f) - 0.055f;
+        return Math.max(0, Math.min(255, Math.round(c * 255f)));
+    }
+}
@@ -0,0 +1,241 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+import android.support.v4.app.FragmentTransaction;
+import android.support.v4.view.PagerAdapter;
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Loop-aware counterpart of {@link android.support.v4.app.FragmentStatePagerAdapter} for use
+ * with {@link LoopViewPager}.
+ * <p>
+ * {@link #getItem(int)} receives real positions, so a mirror page and the real page it mirrors
+ * are built from the same position. Fragment instances are still tracked per pager position,
+ * because both can be on screen at once, but their saved state is keyed by real position: the
+ * state saved when one of them is destroyed is restored into the other. At most
+ * {@code maxSavedStates} states are retained; the least recently used ones are dropped first.
+ */
+public abstract class LoopFragmentStatePagerAdapter extends PagerAdapter {
+
+    public static final int DEFAULT_MAX_SAVED_STATES = 8;
+
+    private static final String KEY_STATE_POSITIONS = "statePositions";
+    private static final String KEY_STATES = "states";
+    private static final String KEY_FRAGMENT_PREFIX = "f";
+
+    private final FragmentManager fragmentManager;
+    private final int maxSavedStates;
+    private FragmentTransaction curTransaction = null;
+
+    // Saved states by real position, in access order
+    private final LinkedHashMap<Integer, Fragment.SavedState> savedStates;
+    // Live fragments by pager position
+    private final SparseArray<Fragment> fragments = new SparseArray<>();
+    private Fragment currentPrimaryItem = null;
+    // Set while the wrapper applies a data change; pages destroyed then are gone
+    private boolean dataChanging;
+
+    public LoopFragmentStatePagerAdapter(FragmentManager fm) {
+        this(fm, DEFAULT_MAX_SAVED_STATES);
+    }
+
+    public LoopFragmentStatePagerAdapter(FragmentManager fm, int maxSavedStates) {
+        this.fragmentManager = fm;
+        this.maxSavedStates = maxSavedStates;
+        this.savedStates = new LinkedHashMap<Integer, Fragment.SavedState>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Fragment.SavedState> eldest) {
+                return size() > LoopFragmentStatePagerAdapter.this.maxSavedStates;
+            }
+        };
+    }
+
+    /**
+     * Return the Fragment associated with a real position.
+     */
+    public abstract Fragment getItem(int realPosition);
+
+    @Override
+    public Object instantiateItem(ViewGroup container, int position) {
+        Fragment fragment = this.fragments.get(position);
+        if (fragment != null) {
+            return fragment;
+        }
+        if (this.curTransaction == null) {
+            this.curTransaction = this.fragmentManager.beginTransaction();
+        }
+
+        int realPosition = LoopMath.toRealPosition(position, getCount());
+        fragment = getItem(realPosition);
+        Fragment.SavedState savedState = this.savedStates.get(realPosition);
+        if (savedState != null) {
+            fragment.setInitialSavedState(savedState);
+        }
+        fragment.setMenuVisibility(false);
+        fragment.setUserVisibleHint(false);
+        this.fragments.put(position, fragment);
+        this.curTransaction.add(container.getId(), fragment);
+        return fragment;
+    }
+
+    @Override
+    public void destroyItem(ViewGroup container, int position, Object object) {
+        Fragment fragment = (Fragment) object;
+        if (this.curTransaction == null) {
+            this.curTransaction = this.fragmentManager.beginTransaction();
+        }
+
+        // Pages destroyed by a data change were removed, or mirror a different page now
+        if (!this.dataChanging) {
+            int realPosition = LoopMath.toRealPosition(position, getCount());
+            Fragment.SavedState savedState = fragment.isAdded()
+                    ? this.fragmentManager.saveFragmentInstanceState(fragment)
+                    : null;
+            if (savedState != null) {
+                this.savedStates.put(realPosition, savedState);
+            } else {
+                this.savedStates.remove(realPosition);
+            }
+        }
+        if (this.fragments.get(position) == fragment) {
+            this.fragments.remove(position);
+        }
+        this.curTransaction.remove(fragment);
+    }
+
+    /**
+     * Called by {@link LoopPagerAdapterWrapper} before it applies a change of the data. Saved
+     * states follow their pages to their new real positions through {@code diff}, and states of
+     * removed pages are dropped. Without a diff, i.e. without {@link LoopViewPager.KeyedAdapter},
+     * pages can't be told apart across the change, so all states are dropped rather than
+     * restored into the wrong page.
+     */
+    void onDataSetChanging(PageDiff diff) {
+        this.dataChanging = true;
+        if (diff == null) {
+            this.savedStates.clear();
+            return;
+        }
+        ArrayList<Map.Entry<Integer, Fragment.SavedState>> entries =
+                new ArrayList<>(this.savedStates.entrySet());
+        this.savedStates.clear();
+        // Re-inserted in access order, so the least recently used states stay first
+        for (Map.Entry<Integer, Fragment.SavedState> entry : entries) {
+            int newPosition = diff.toNewPosition(entry.getKey());
+            if (newPosition != PageDiff.NO_POSITION) {
+                this.savedStates.put(newPosition, entry.getValue());
+            }
+        }
+    }
+
+    void onDataSetChanged() {
+        this.dataChanging = false;
+    }
+
+    /**
+     * Called by {@link LoopPagerAdapterWrapper} when a live fragment changes pager position.
+     */
+    void onItemMoved(int fromPosition, int toPosition, Object object) {
+        if (this.fragments.get(fromPosition) == object) {
+            this.fragments.remove(fromPosition);
+        }
+        this.fragments.put(toPosition, (Fragment) object);
+    }
+
+    @Override
+    public void setPrimaryItem(ViewGroup container, int position, Object object) {
+        Fragment fragment = (Fragment) object;
+        if (fragment != this.currentPrimaryItem) {
+            if (this.currentPrimaryItem != null) {
+                this.currentPrimaryItem.setMenuVisibility(false);
+                this.currentPrimaryItem.setUserVisibleHint(false);
+            }
+            if (fragment != null) {
+                fragment.setMenuVisibility(true);
+                fragment.setUserVisibleHint(true);
+            }
+            this.currentPrimaryItem = fragment;
+        }
+    }
+
+    @Override
+    public void finishUpdate(ViewGroup container) {
+        if (this.curTransaction != null) {
+            this.curTransaction.commitNowAllowingStateLoss();
+            this.curTransaction = null;
+        }
+    }
+
+    @Override
+    public boolean isViewFromObject(View view, Object object) {
+        return ((Fragment) object).getView() == view;
+    }
+
+    @Override
+    public Parcelable saveState() {
+        Bundle state = null;
+        if (!this.savedStates.isEmpty()) {
+            state = new Bundle();
+            int[] positions = new int[this.savedStates.size()];
+            Fragment.SavedState[] states = new Fragment.SavedState[positions.length];
+            int i = 0;
+            for (Map.Entry<Integer, Fragment.SavedState> entry : this.savedStates.entrySet()) {
+                positions[i] = entry.getKey();
+                states[i] = entry.getValue();
+                i++;
+            }
+            state.putIntArray(KEY_STATE_POSITIONS, positions);
+            state.putParcelableArray(KEY_STATES, states);
+        }
+        for (int i = 0; i < this.fragments.size(); i++) {
+            Fragment fragment = this.fragments.valueAt(i);
+            if (fragment != null && fragment.isAdded()) {
+                if (state == null) {
+                    state = new Bundle();
+                }
+                this.fragmentManager.putFragment(state, KEY_FRAGMENT_PREFIX + this.fragments.keyAt(i), fragment);
+            }
+        }
+        return state;
+    }
+
+    @Override
+    public void restoreState(Parcelable state, ClassLoader loader) {
+        if (state == null) {
+            return;
+        }
+        Bundle bundle = (Bundle) state;
+        bundle.setClassLoader(loader);
+        this.savedStates.clear();
+        this.fragments.clear();
+        int[] positions = bundle.getIntArray(KEY_STATE_POSITIONS);
+        Parcelable[] states = bundle.getParcelableArray(KEY_STATES);
+        if (positions != null && states != null) {
+            for (int i = 0; i < positions.length; i++) {
+                this.savedStates.put(positions[i], (Fragment.SavedState) states[i]);
+            }
+        }
+        Iterator<String> keys = bundle.keySet().iterator();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (key.startsWith(KEY_FRAGMENT_PREFIX)) {
+                int position = Integer.parseInt(key.substring(KEY_FRAGMENT_PREFIX.length()));
+                Fragment fragment = this.fragmentManager.getFragment(bundle, key);
+                if (fragment != null) {
+                    fragment.setMenuVisibility(false);
+                    this.fragments.put(position, fragment);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+/**
+ * Position and color math used on every scroll event and frame. Kept free of Android
+ * dependencies and of allocations so it can be checked on the JVM.
+ */
+final class LoopMath {
+
+    private LoopMath() {
+    }
+
+    /**
+     * Map a position of the wrapped adapter (which has a mirror page on each side) to the
+     * position in the real adapter.
+     *
+     * @return the real position, or -1 if the real adapter is empty.
+     */
+    static int toRealPosition(int position, int count) {
+        if (count == 0) {
+            // The wrapper still has its two mirror pages, so the pager scrolls to position 0
+            return -1;
+        }
+        int realPosition = (position - 1) % count;
+        if (realPosition < 0) {
+            realPosition += count;
+        }
+        return realPosition;
+    }
+
+    /**
+     * Map a position in the real adapter to its position in the wrapped adapter.
+     */
+    static int toInnerPosition(int realPosition) {
+        return realPosition + 1;
+    }
+
+    /**
+     * @return how many times the real pages are repeated in virtual loop mode: an odd number,
+     * so there is a middle copy, and enough for about {@code virtualPages} pages in total.
+     */
+    static int virtualCopies(int count, int virtualPages, int minCopies) {
+        int copies = Math.max(minCopies, virtualPages / Math.max(count, 1));
+        return copies | 1;
+    }
+
+    /**
+     * @return the copy of the real pages {@code position} is in, in virtual loop mode. Positions
+     * are offset by one like the wrapped adapter's, so {@link #toRealPosition(int, int)} holds.
+     */
+    static int copyOf(int position, int count) {
+        return (position - 1 - toRealPosition(position, count)) / count;
+    }
+
+    /**
+     * @return the position of {@code realPosition} in the given copy, in virtual loop mode.
+     */
+    static int toVirtualPosition(int realPosition, int count, int copy) {
+        return copy * count + realPosition + 1;
+    }
+
+    /**
+     * @return the position showing {@code realPosition} that is closest to {@code position},
+     * going either way around the loop.
+     */
+    static int toNearestPosition(int realPosition, int count, int position) {
+        int nearest = toVirtualPosition(realPosition, count, copyOf(position, count));
+        if (nearest - position > count / 2) {
+            nearest -= count;
+        } else if (position - nearest > count / 2) {
+            nearest += count;
+        }
+        return nearest;
+    }
+
+    /**
+     * @return the color for {@code position} when {@code colors} repeat cyclically.
+     */
+    static int indicatorColor(int[] colors, int position) {
+        return colors[position % colors.length];
+    }
+
+    /**
+     * @return the value {@code ratio} of the way from {@code from} to {@code to}.
+     */
+    static int lerp(int from, int to, float ratio) {
+        return (int) (ratio * to + (1.0f - ratio) * from);
+    }
+
+    /**
+     * Blend {@code color1} and {@code color2} using the given ratio. The result is opaque.
+     *
+     * @param ratio of which to blend. 1.0 will return {@code color1}, 0.5 will give an even blend,
+     *              0.0 will return {@code color2}.
+     */
+    static int blendColors(int color1, int color2, float ratio) {
+        final float inverseRation = 1f - ratio;
+        float r = (((color1 >> 16) & 0xFF) * ratio) + (((color2 >> 16) & 0xFF) * inverseRation);
+        float g = (((color1 >> 8) & 0xFF) * ratio) + (((color2 >> 8) & 0xFF) * inverseRation);
+        float b = ((color1 & 0xFF) * ratio) + ((color2 & 0xFF) * inverseRation);
+        return 0xFF000000 | ((int) r << 16) | ((int) g << 8) | (int) b;
+    }
+}
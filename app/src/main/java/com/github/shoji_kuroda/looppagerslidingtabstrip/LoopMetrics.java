@@ -0,0 +1,188 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+/**
+ * Opt-in counters and latency histograms for the hot paths of {@link LoopViewPager} and
+ * {@link SlidingTabLayout}. Set the same instance on both with {@code setMetrics}, and call
+ * {@link #report()} whenever the aggregates should go to the {@link Sink}, e.g. when the screen
+ * is paused.
+ * <p>
+ * While metrics are set, the measured stages also show up as {@code android.os.Trace} sections
+ * in systrace. Recording never allocates. Not thread safe; use from the main thread.
+ */
+public final class LoopMetrics {
+
+    /**
+     * Receives the aggregates collected since the previous report.
+     */
+    public interface Sink {
+
+        /**
+         * Read what is needed from {@code metrics}; it is reset when this returns.
+         */
+        void onReport(LoopMetrics metrics);
+    }
+
+    /**
+     * Counter: jumps from a mirror page to the real page across the seam, or in virtual loop
+     * mode, back to the middle copy.
+     */
+    public static final int SEAM_JUMPS = 0;
+    /**
+     * Counter: pages served from the boundary cache.
+     */
+    public static final int BOUNDARY_CACHE_HITS = 1;
+    /**
+     * Counter: pages the boundary cache did not have.
+     */
+    public static final int BOUNDARY_CACHE_MISSES = 2;
+    private static final String[] COUNTER_NAMES = {
+            "seam_jumps", "boundary_cache_hits", "boundary_cache_misses"};
+
+    /**
+     * Histogram: time the inner adapter took in {@code instantiateItem}.
+     */
+    public static final int PAGE_BIND = 0;
+    /**
+     * Histogram: time to create a tab view.
+     */
+    public static final int TAB_INFLATE = 1;
+    /**
+     * Histogram: time to draw the tab layout, once per frame it is drawn.
+     */
+    public static final int TAB_DRAW = 2;
+    private static final String[] HISTOGRAM_NAMES = {"page_bind", "tab_inflate", "tab_draw"};
+
+    static final String SECTION_SEAM_JUMP = "LoopViewPager#seamJump";
+    static final String SECTION_PAGE_BIND = "LoopPagerAdapterWrapper#instantiateItem";
+    static final String SECTION_TAB_INFLATE = "SlidingTabLayout#createTabView";
+    static final String SECTION_TAB_DRAW = "SlidingTabLayout#draw";
+
+    private final long[] counters = new long[COUNTER_NAMES.length];
+    private final Histogram[] histograms = new Histogram[HISTOGRAM_NAMES.length];
+    private Sink sink;
+
+    public LoopMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    public void setSink(Sink sink) {
+        this.sink = sink;
+    }
+
+    public static int getCounterCount() {
+        return COUNTER_NAMES.length;
+    }
+
+    public static String getCounterName(int counter) {
+        return COUNTER_NAMES[counter];
+    }
+
+    public static int getHistogramCount() {
+        return HISTOGRAM_NAMES.length;
+    }
+
+    public static String getHistogramName(int histogram) {
+        return HISTOGRAM_NAMES[histogram];
+    }
+
+    public long getCounter(int counter) {
+        return counters[counter];
+    }
+
+    public Histogram getHistogram(int histogram) {
+        return histograms[histogram];
+    }
+
+    /**
+     * Hand the aggregates to the sink, if any, and start over.
+     */
+    public void report() {
+        if (sink != null) {
+            sink.onReport(this);
+        }
+        reset();
+    }
+
+    public void reset() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = 0;
+        }
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    void increment(int counter) {
+        counters[counter]++;
+    }
+
+    void record(int histogram, long nanos) {
+        histograms[histogram].record(nanos);
+    }
+
+    /**
+     * Latencies in power-of-two buckets of microseconds, from under 1us to 32ms and above.
+     */
+    public static final class Histogram {
+
+        private static final int BUCKETS = 17;
+
+        private final long[] buckets = new long[BUCKETS];
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        void record(long nanos) {
+            long micros = nanos / 1000;
+            int bucket = micros <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+            buckets[Math.min(bucket, BUCKETS - 1)]++;
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = 0;
+            }
+            count = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMeanNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * @param fraction between 0 and 1, e.g. 0.9 for the 90th percentile.
+         * @return an upper bound of the given percentile: the top of the bucket it falls in,
+         * or the maximum for the last bucket.
+         */
+        public long getPercentileNanos(float fraction) {
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min((1L << i) * 1000, maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.github.shoji_kuroda.looppagerslidingtabstrip;
 
+import android.content.ComponentCallbacks2;
+import android.database.DataSetObserver;
 import android.os.Parcelable;
 import android.support.v4.app.FragmentPagerAdapter;
 import android.support.v4.app.FragmentStatePagerAdapter;
@@ -8,45 +10,503 @@ import android.util.SparseArray;
 import android.view.View;
 import android.view.ViewGroup;
 
+import java.util.IdentityHashMap;
+
 /**
  * Created by shoji.kuroda on 2016/09/06.
  */
-public class LoopPagerAdapterWrapper extends PagerAdapter {
+public class LoopPagerAdapterWrapper extends PagerAdapter implements PageCache.OnEvictListener {
+
+    // Virtual loop mode repeats the real pages to about this many pages
+    private static final int VIRTUAL_PAGES = 1 << 14;
+    private static final int MIN_VIRTUAL_COPIES = 5;
 
     private PagerAdapter adapter;
 
-    private SparseArray<ToDestroy> toDestroy = new SparseArray<ToDestroy>();
+    private final PageCache pageCache = new PageCache(this);
 
     private boolean boundaryCaching;
+    private int cacheDistance = PageCache.DEFAULT_DISTANCE;
+
+    // Last position passed to setPrimaryItem
+    private int primaryPosition = 1;
+
+    // Position of every page object currently held by the ViewPager or the boundary cache
+    private final IdentityHashMap<Object, Integer> itemPositions = new IdentityHashMap<>();
+    // The same pages by position, for lookups by position
+    private final SparseArray<Object> positionItems = new SparseArray<>();
+    // Keys at the time of the last update, when the adapter implements KeyedAdapter
+    private Object[] pageKeys;
+    // Real count the current pages were created with; differs from getRealCount() during an update
+    private int currentRealCount;
+    private PageDiff pendingDiff;
+    private boolean updating;
+
+    // Told how long pages take to bind, when the pager adapts its offscreen limit
+    private OffscreenPagePolicy offscreenPolicy;
+    private long updateStartNanos;
+    private int pagesBound;
+    private LoopMetrics metrics;
+
+    // Recycled page views, when the inner adapter is a RecyclingPagerAdapter
+    private final PageViewPool viewPool;
+
+    // Repeat the real pages many times instead of adding two mirror pages
+    private boolean virtualLoop;
+    // Copies the current pages were created with, in virtual loop mode
+    private int currentCopies;
+    // Positions every live page moves by while pages are handed over
+    private int handoverShift;
+
+    private final DataSetObserver innerObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            notifyDataSetChanged();
+        }
+    };
 
     void setBoundaryCaching(boolean flag) {
         boundaryCaching = flag;
+        if (!flag) {
+            trimCache(0);
+        }
+    }
+
+    /**
+     * Switch between two mirror pages and virtual loop mode. Changes the count, so the pager
+     * must not hold any page of this adapter while it is called.
+     */
+    void setVirtualLoop(boolean flag) {
+        trimCache(0);
+        this.virtualLoop = flag;
+        this.currentCopies = getCopies();
+    }
+
+    boolean isVirtualLoop() {
+        return this.virtualLoop;
+    }
+
+    boolean isBoundaryCaching() {
+        return boundaryCaching;
+    }
+
+    /**
+     * Instantiate the page at {@code position} ahead of time and park it in the cache, unless it
+     * already exists or the cache is full.
+     *
+     * @return true if a page was instantiated.
+     */
+    boolean prefetch(ViewGroup container, int position) {
+        if (!this.boundaryCaching || position < 0 || position >= getCount()
+                || this.pageCache.size() >= this.pageCache.getCapacity()
+                || this.positionItems.get(position) != null) {
+            return false;
+        }
+        int realPosition = toAdapterPosition(position);
+        long start = System.nanoTime();
+        this.adapter.startUpdate(container);
+        Object object = instantiateInner(container, realPosition);
+        this.adapter.finishUpdate(container);
+        if (this.offscreenPolicy != null) {
+            this.offscreenPolicy.onPagesBound(1, System.nanoTime() - start);
+        }
+        trackPage(object, position);
+        ToDestroy page = new ToDestroy(container, realPosition, object);
+        page.prefetched = true;
+        this.pageCache.put(position, page);
+        return true;
+    }
+
+    /**
+     * Stop favouring prefetched pages over released ones, because the pager moved away from
+     * the seam.
+     */
+    void clearPrefetched() {
+        this.pageCache.clearPrefetched();
+    }
+
+    private void trackPage(Object object, int position) {
+        Integer previous = this.itemPositions.put(object, position);
+        if (previous != null && this.positionItems.get(previous) == object) {
+            this.positionItems.remove(previous);
+        }
+        this.positionItems.put(position, object);
+    }
+
+    private void untrackPage(Object object) {
+        Integer position = this.itemPositions.remove(object);
+        if (position != null && this.positionItems.get(position) == object) {
+            this.positionItems.remove(position);
+        }
+    }
+
+    void setOffscreenPolicy(OffscreenPagePolicy policy) {
+        this.offscreenPolicy = policy;
+    }
+
+    void setMetrics(LoopMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Set how many released pages may be kept around the current position and the seam.
+     */
+    void setCacheCapacity(int capacity) {
+        capacity = Math.max(0, capacity);
+        trimCache(capacity);
+        this.pageCache.setCapacity(capacity);
+    }
+
+    /**
+     * Set how far from the current page, in real pages, a released page may be to be cached.
+     */
+    void setCacheDistance(int distance) {
+        this.cacheDistance = Math.max(0, distance);
+    }
+
+    /**
+     * Release cached pages in response to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     * The capacity is unchanged, so the cache fills up again once memory is available.
+     */
+    void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimCache(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            trimCache(this.pageCache.getCapacity() / 2);
+        }
+        if (this.viewPool != null && level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            this.viewPool.clear();
+        }
+    }
+
+    int getCacheHitCount() {
+        return this.pageCache.getHitCount();
+    }
+
+    int getCacheMissCount() {
+        return this.pageCache.getMissCount();
+    }
+
+    int getCacheEvictionCount() {
+        return this.pageCache.getEvictionCount();
+    }
+
+    int getPageViewReuseCount() {
+        return this.viewPool != null ? this.viewPool.getReuseCount() : 0;
+    }
+
+    int getPageViewCreateCount() {
+        return this.viewPool != null ? this.viewPool.getCreateCount() : 0;
+    }
+
+    /**
+     * Shrink the cache outside of a ViewPager update, wrapping the evictions in an update of
+     * the inner adapter so fragment transactions are committed.
+     */
+    private void trimCache(int maxSize) {
+        if (this.pageCache.size() <= maxSize) {
+            return;
+        }
+        ViewGroup container = this.pageCache.valueAt(0).container;
+        this.adapter.startUpdate(container);
+        this.pageCache.trimToSize(maxSize);
+        this.adapter.finishUpdate(container);
+    }
+
+    @Override
+    public void onPageEvicted(ToDestroy page) {
+        untrackPage(page.object);
+        destroyInner(page.container, page.position, page.object);
+    }
+
+    /**
+     * @return true if a page released at {@code position} is worth keeping: it is next to the
+     * seam, or within the cache distance of the current page.
+     */
+    private boolean isCacheable(int position) {
+        if (!this.virtualLoop
+                && (position == getRealFirstPosition() || position == getRealLastPosition())) {
+            return true;
+        }
+        int realCount = getRealCount();
+        int distance = Math.abs(toRealPosition(position) - toRealPosition(this.primaryPosition));
+        distance = Math.min(distance, realCount - distance);
+        return distance <= this.cacheDistance;
     }
 
     LoopPagerAdapterWrapper(PagerAdapter adapter) {
         this.adapter = adapter;
+        this.viewPool = adapter instanceof RecyclingPagerAdapter
+                ? new PageViewPool((RecyclingPagerAdapter) adapter)
+                : null;
+        this.pageKeys = snapshotKeys();
+        this.currentRealCount = adapter.getCount();
+        this.currentCopies = getCopies();
+        this.adapter.registerDataSetObserver(this.innerObserver);
     }
 
+    /**
+     * Stop following the inner adapter. Called when the pager switches to another adapter.
+     */
+    void release() {
+        this.adapter.unregisterDataSetObserver(this.innerObserver);
+    }
+
+    /**
+     * Apply a change of the inner adapter. When the adapter implements
+     * {@link LoopViewPager.KeyedAdapter} the old and new keys are diffed, so the ViewPager only
+     * destroys removed pages, moves pages that changed position and creates inserted ones.
+     * Otherwise the inner adapter's {@link PagerAdapter#getItemPosition(Object)} decides.
+     */
     @Override
     public void notifyDataSetChanged() {
-        this.toDestroy = new SparseArray<>();
-        super.notifyDataSetChanged();
+        Object[] newKeys = snapshotKeys();
+        if (this.pageKeys != null && newKeys != null) {
+            this.pendingDiff = PageDiff.compute(this.pageKeys, newKeys);
+        }
+        final LoopFragmentStatePagerAdapter fragmentAdapter =
+                this.adapter instanceof LoopFragmentStatePagerAdapter
+                        ? (LoopFragmentStatePagerAdapter) this.adapter
+                        : null;
+        if (fragmentAdapter != null) {
+            fragmentAdapter.onDataSetChanging(this.pendingDiff);
+        }
+        this.updating = true;
+        try {
+            releaseBoundaryCache();
+            super.notifyDataSetChanged();
+        } finally {
+            this.updating = false;
+            this.pendingDiff = null;
+            this.pageKeys = newKeys;
+            this.currentRealCount = getRealCount();
+            this.currentCopies = getCopies();
+            if (fragmentAdapter != null) {
+                fragmentAdapter.onDataSetChanged();
+            }
+        }
+    }
+
+    @Override
+    public int getItemPosition(Object object) {
+        Integer position = this.itemPositions.get(object);
+        if (position == null) {
+            return POSITION_NONE;
+        }
+        int newPosition = this.handoverShift != 0
+                ? toHandedOverPosition(position)
+                : toUpdatedPosition(position, object);
+        if (newPosition == POSITION_NONE) {
+            return POSITION_NONE;
+        }
+        if (newPosition == position) {
+            return POSITION_UNCHANGED;
+        }
+        trackPage(object, newPosition);
+        if (this.adapter instanceof LoopFragmentStatePagerAdapter) {
+            ((LoopFragmentStatePagerAdapter) this.adapter).onItemMoved(position, newPosition, object);
+        }
+        return newPosition;
+    }
+
+    /**
+     * @return true if live pages can be moved to other positions without the inner adapter
+     * noticing. The support library's fragment adapters track their fragments by position.
+     */
+    boolean canHandOverPages() {
+        return !(this.adapter instanceof FragmentPagerAdapter
+                || this.adapter instanceof FragmentStatePagerAdapter);
+    }
+
+    /**
+     * Move every live page {@code shift} positions, e.g. from around a mirror page to around the
+     * real page it mirrors, without destroying and instantiating it again. The ViewPager follows
+     * its current page, so it ends up {@code shift} positions further too. Pages that would
+     * leave the adapter's range are destroyed as usual.
+     */
+    void handOverPages(int shift) {
+        // Cached pages where the live ones are moving to would be duplicates
+        ViewGroup container = null;
+        for (int i = this.pageCache.size() - 1; i >= 0; i--) {
+            int source = this.pageCache.keyAt(i) - shift;
+            if (this.positionItems.get(source) == null || isCached(source)) {
+                continue;
+            }
+            ToDestroy cached = this.pageCache.valueAt(i);
+            if (container == null) {
+                container = cached.container;
+                this.adapter.startUpdate(container);
+            }
+            this.pageCache.removeAt(i);
+            untrackPage(cached.object);
+            destroyInner(cached.container, cached.position, cached.object);
+        }
+        if (container != null) {
+            this.adapter.finishUpdate(container);
+        }
+
+        this.handoverShift = shift;
+        try {
+            // Bypasses the diffing of our own notifyDataSetChanged(); the data did not change
+            super.notifyDataSetChanged();
+        } finally {
+            this.handoverShift = 0;
+        }
+    }
+
+    private int toHandedOverPosition(int position) {
+        int newPosition = position + this.handoverShift;
+        return newPosition >= 0 && newPosition < getCount() ? newPosition : POSITION_NONE;
+    }
+
+    private boolean isCached(int position) {
+        for (int i = 0; i < this.pageCache.size(); i++) {
+            if (this.pageCache.keyAt(i) == position) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return where the page at {@code position} belongs after the pending update, or
+     * {@link #POSITION_NONE} if it has to be destroyed.
+     */
+    private int toUpdatedPosition(int position, Object object) {
+        final int oldCount = this.currentRealCount;
+        final int newCount = getRealCount();
+        if (oldCount == 0 || newCount == 0) {
+            return POSITION_NONE;
+        }
+        int oldReal = LoopMath.toRealPosition(position, oldCount);
+        // The inner adapter may still ask for a page to be rebuilt when its key is unchanged
+        int result = this.adapter.getItemPosition(object);
+        if (result == POSITION_NONE) {
+            return POSITION_NONE;
+        }
+        int newReal;
+        if (this.pendingDiff != null) {
+            newReal = this.pendingDiff.toNewPosition(oldReal);
+        } else {
+            newReal = result == POSITION_UNCHANGED ? oldReal : result;
+        }
+        if (newReal == PageDiff.NO_POSITION || newReal >= newCount) {
+            return POSITION_NONE;
+        }
+        if (this.virtualLoop) {
+            // Keep the page in the same copy relative to the middle one, so pages next to each
+            // other across a seam stay next to each other
+            int copy = LoopMath.copyOf(position, oldCount) - this.currentCopies / 2;
+            int newCopies = getCopies();
+            int newPosition = LoopMath.toVirtualPosition(newReal, newCount, newCopies / 2 + copy);
+            return newPosition >= 0 && newPosition < newCopies * newCount ? newPosition : POSITION_NONE;
+        }
+        // Mirror pages stay on their side of the loop as long as they still mirror the same page
+        if (position == 0) {
+            return newReal == newCount - 1 ? 0 : POSITION_NONE;
+        }
+        if (position == oldCount + 1) {
+            return newReal == 0 ? newCount + 1 : POSITION_NONE;
+        }
+        return newReal + 1;
+    }
+
+    /**
+     * Destroy cached boundary pages that the pending update moves or removes.
+     */
+    private void releaseBoundaryCache() {
+        ViewGroup container = null;
+        for (int i = this.pageCache.size() - 1; i >= 0; i--) {
+            int position = this.pageCache.keyAt(i);
+            ToDestroy cached = this.pageCache.valueAt(i);
+            if (this.pendingDiff != null && toUpdatedPosition(position, cached.object) == position) {
+                continue;
+            }
+            if (container == null) {
+                container = cached.container;
+                this.adapter.startUpdate(container);
+            }
+            this.pageCache.removeAt(i);
+            untrackPage(cached.object);
+            destroyInner(cached.container, cached.position, cached.object);
+        }
+        if (container != null) {
+            this.adapter.finishUpdate(container);
+        }
+    }
+
+    private Object[] snapshotKeys() {
+        if (!(this.adapter instanceof LoopViewPager.KeyedAdapter)) {
+            return null;
+        }
+        LoopViewPager.KeyedAdapter keyedAdapter = (LoopViewPager.KeyedAdapter) this.adapter;
+        Object[] keys = new Object[this.adapter.getCount()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = keyedAdapter.getPageKey(i);
+        }
+        return keys;
+    }
+
+    /**
+     * @return the position to hand to the inner adapter. Fragment adapters work with pager
+     * positions, so that the mirror pages get their own fragment instances.
+     */
+    private int toAdapterPosition(int position) {
+        return (this.adapter instanceof FragmentPagerAdapter
+                || this.adapter instanceof FragmentStatePagerAdapter
+                || this.adapter instanceof LoopFragmentStatePagerAdapter)
+                ? position
+                : toRealPosition(position);
     }
 
     int toRealPosition(int position) {
-        int realCount = getRealCount();
+        // Pages destroyed while an update is applied still use the count they were created with
+        int realCount = this.updating ? this.currentRealCount : getRealCount();
         if (realCount == 0)
             return 0;
-        int realPosition = (position - 1) % realCount;
-        if (realPosition < 0)
-            realPosition += realCount;
-
-        return realPosition;
+        return LoopMath.toRealPosition(position, realCount);
     }
 
     public int toInnerPosition(int realPosition) {
-        int position = (realPosition + 1);
-        return position;
+        if (this.virtualLoop) {
+            return LoopMath.toVirtualPosition(realPosition, getRealCount(), getCopies() / 2);
+        }
+        return LoopMath.toInnerPosition(realPosition);
+    }
+
+    /**
+     * @return the position of {@code realPosition} to move to from {@code position}: in virtual
+     * loop mode the closest one either way around the loop, otherwise the real page.
+     */
+    int toInnerPosition(int realPosition, int position) {
+        if (!this.virtualLoop) {
+            return LoopMath.toInnerPosition(realPosition);
+        }
+        int nearest = LoopMath.toNearestPosition(realPosition, getRealCount(), position);
+        return nearest >= 0 && nearest < getCount() ? nearest : toInnerPosition(realPosition);
+    }
+
+    /**
+     * @return true if {@code position} is a mirror page the pager must jump away from.
+     */
+    boolean isSeamPosition(int position) {
+        return !this.virtualLoop && (position == 0 || position == getCount() - 1);
+    }
+
+    /**
+     * @return true if the pager drifted so far from the middle copy in virtual loop mode that
+     * it should move back before the user can reach either end.
+     */
+    boolean needsRecentring(int position) {
+        if (!this.virtualLoop || getRealCount() == 0) {
+            return false;
+        }
+        int copies = getCopies();
+        return Math.abs(LoopMath.copyOf(position, getRealCount()) - copies / 2) > copies / 4;
+    }
+
+    private int getCopies() {
+        return LoopMath.virtualCopies(getRealCount(), VIRTUAL_PAGES, MIN_VIRTUAL_COPIES);
     }
 
     private int getRealFirstPosition() {
@@ -59,6 +519,9 @@ public class LoopPagerAdapterWrapper extends PagerAdapter {
 
     @Override
     public int getCount() {
+        if (this.virtualLoop) {
+            return getCopies() * getRealCount();
+        }
         return this.adapter.getCount() + 2;
     }
 
@@ -72,31 +535,66 @@ public class LoopPagerAdapterWrapper extends PagerAdapter {
 
     @Override
     public Object instantiateItem(ViewGroup container, int position) {
-        int realPosition = (this.adapter instanceof FragmentPagerAdapter || this.adapter instanceof FragmentStatePagerAdapter)
-                ? position
-                : toRealPosition(position);
+        int realPosition = toAdapterPosition(position);
 
         if (this.boundaryCaching) {
-            ToDestroy toDestroy = this.toDestroy.get(position);
+            ToDestroy toDestroy = this.pageCache.take(position);
+            if (this.metrics != null) {
+                this.metrics.increment(toDestroy != null
+                        ? LoopMetrics.BOUNDARY_CACHE_HITS : LoopMetrics.BOUNDARY_CACHE_MISSES);
+            }
             if (toDestroy != null) {
-                this.toDestroy.remove(position);
+                trackPage(toDestroy.object, position);
                 return toDestroy.object;
             }
         }
+        Object object = instantiateInner(container, realPosition);
+        trackPage(object, position);
+        this.pagesBound++;
+        return object;
+    }
+
+    private Object instantiateInner(ViewGroup container, int realPosition) {
+        if (this.metrics == null) {
+            return bindInner(container, realPosition);
+        }
+        LoopTrace.beginSection(LoopMetrics.SECTION_PAGE_BIND);
+        long start = System.nanoTime();
+        try {
+            return bindInner(container, realPosition);
+        } finally {
+            this.metrics.record(LoopMetrics.PAGE_BIND, System.nanoTime() - start);
+            LoopTrace.endSection();
+        }
+    }
+
+    private Object bindInner(ViewGroup container, int realPosition) {
+        if (this.viewPool != null) {
+            View view = this.viewPool.obtain(container, realPosition);
+            container.addView(view);
+            return view;
+        }
         return this.adapter.instantiateItem(container, realPosition);
     }
 
     @Override
     public void destroyItem(ViewGroup container, int position, Object object) {
-        int realFirst = getRealFirstPosition();
-        int realLast = getRealLastPosition();
-        int realPosition = (adapter instanceof FragmentPagerAdapter || adapter instanceof FragmentStatePagerAdapter)
-                ? position
-                : toRealPosition(position);
+        int realPosition = toAdapterPosition(position);
 
-        if (this.boundaryCaching && (position == realFirst || position == realLast)) {
-            this.toDestroy.put(position, new ToDestroy(container, realPosition,
+        if (this.boundaryCaching && isCacheable(position)) {
+            this.pageCache.put(position, new ToDestroy(container, realPosition,
                     object));
+        } else {
+            untrackPage(object);
+            destroyInner(container, realPosition, object);
+        }
+    }
+
+    private void destroyInner(ViewGroup container, int realPosition, Object object) {
+        if (this.viewPool != null) {
+            View view = (View) object;
+            container.removeView(view);
+            this.viewPool.recycle(view);
         } else {
             this.adapter.destroyItem(container, realPosition, object);
         }
@@ -109,6 +607,12 @@ public class LoopPagerAdapterWrapper extends PagerAdapter {
     @Override
     public void finishUpdate(ViewGroup container) {
         this.adapter.finishUpdate(container);
+        // Fragment adapters do most of the binding when the update is committed, so the time
+        // is taken over the whole update
+        if (this.offscreenPolicy != null && this.pagesBound > 0) {
+            this.offscreenPolicy.onPagesBound(this.pagesBound, System.nanoTime() - this.updateStartNanos);
+        }
+        this.pagesBound = 0;
     }
 
     @Override
@@ -128,11 +632,14 @@ public class LoopPagerAdapterWrapper extends PagerAdapter {
 
     @Override
     public void startUpdate(ViewGroup container) {
+        this.updateStartNanos = System.nanoTime();
+        this.pagesBound = 0;
         this.adapter.startUpdate(container);
     }
 
     @Override
     public void setPrimaryItem(ViewGroup container, int position, Object object) {
+        this.primaryPosition = position;
         this.adapter.setPrimaryItem(container, position, object);
     }
     
@@ -147,6 +654,9 @@ public class LoopPagerAdapterWrapper extends PagerAdapter {
         ViewGroup container;
         int position;
         Object object;
+        long lastUsed;
+        // Parked ahead of a seam jump rather than released by the pager
+        boolean prefetched;
 
         public ToDestroy(ViewGroup container, int position, Object object) {
             this.container = container;
@@ -0,0 +1,41 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+import android.os.Build;
+import android.os.Trace;
+import android.util.Log;
+
+/**
+ * Debug tracing for the scroll and draw paths.
+ * <p>
+ * Call sites must be guarded with {@code if (LoopTrace.ENABLED)}. {@link #ENABLED} is a
+ * compile-time constant, so when it is {@code false} javac drops the whole statement, including
+ * the string concatenation building the message, and nothing is left in the class file.
+ * Turn it on with {@code buildConfigField "boolean", "LOOP_TRACE", "true"} in a debug build.
+ */
+final class LoopTrace {
+
+    static final boolean ENABLED = BuildConfig.LOOP_TRACE;
+
+    private LoopTrace() {
+    }
+
+    static void d(String tag, String message) {
+        Log.d(tag, message);
+    }
+
+    /**
+     * Open a systrace section; a no-op before API 18. Unlike {@link #d}, sections are not tied to
+     * {@link #ENABLED} but emitted while {@link LoopMetrics} are set.
+     */
+    static void beginSection(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+    }
+
+    static void endSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package com.github.shoji_kuroda.looppagerslidingtabstrip;
 
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.support.v4.view.PagerAdapter;
 import android.support.v4.view.ViewPager;
 import android.util.AttributeSet;
@@ -13,9 +16,47 @@ public class LoopViewPager extends ViewPager {
 
     private static final boolean DEFAULT_BOUNDARY_CASHING = false;
 
+    /**
+     * Optionally implemented by the {@link PagerAdapter} set on a {@link LoopViewPager} to give
+     * each page a stable identity. When the adapter's content changes, pages are matched by key,
+     * so only inserted, removed and moved pages and tabs are updated instead of all of them.
+     */
+    public interface KeyedAdapter {
+
+        /**
+         * @return a key identifying the page at {@code position}. Keys are compared with
+         * {@link Object#equals(Object)}.
+         */
+        Object getPageKey(int position);
+    }
+
     OnPageChangeListener outerPageChangeListener;
     private LoopPagerAdapterWrapper adapter;
     private boolean boundaryCaching = DEFAULT_BOUNDARY_CASHING;
+    private int boundaryCacheCapacity = PageCache.DEFAULT_CAPACITY;
+    private int boundaryCacheDistance = PageCache.DEFAULT_DISTANCE;
+    // Not private so tests can run its idle work
+    final SeamPrefetcher seamPrefetcher = new SeamPrefetcher(this);
+    private OffscreenPagePolicy offscreenPolicy;
+    private int scrollState = SCROLL_STATE_IDLE;
+    private LoopMetrics metrics;
+    private boolean virtualLoop;
+
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            LoopViewPager.this.onTrimMemory(level);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            LoopViewPager.this.onTrimMemory(TRIM_MEMORY_COMPLETE);
+        }
+    };
 
     public LoopViewPager(Context context) {
         this(context, null);
@@ -31,13 +72,7 @@ public class LoopViewPager extends ViewPager {
     }
 
     public static int toRealPosition(int position, int count) {
-        position = position - 1;
-        if (position < 0) {
-            position += count;
-        } else {
-            position = position % count;
-        }
-        return position;
+        return LoopMath.toRealPosition(position, count);
     }
 
     public void setBoundaryCaching(boolean flag) {
@@ -45,13 +80,190 @@ public class LoopViewPager extends ViewPager {
         if (adapter != null) {
             adapter.setBoundaryCaching(flag);
         }
+        seamPrefetcher.schedule();
+    }
+
+    LoopPagerAdapterWrapper getWrapperAdapter() {
+        return adapter;
+    }
+
+    /**
+     * @return the current item in wrapper positions, counting the mirror pages.
+     */
+    int getInnerCurrentItem() {
+        return super.getCurrentItem();
+    }
+
+    /**
+     * Set how many pages released by the pager are kept alive when boundary caching is on.
+     * Pages next to the seam and pages within {@link #setBoundaryCacheDistance(int) the cache
+     * distance} of the current page qualify; the least recently used one is destroyed when the
+     * capacity is exceeded. Larger values trade memory for fewer page rebinds while swiping.
+     * Negative values count as 0.
+     */
+    public void setBoundaryCacheCapacity(int capacity) {
+        boundaryCacheCapacity = Math.max(0, capacity);
+        if (adapter != null) {
+            adapter.setCacheCapacity(boundaryCacheCapacity);
+        }
+    }
+
+    /**
+     * Set how many real pages away from the current page a released page may be to qualify for
+     * the boundary cache. Pages next to the seam always qualify.
+     */
+    public void setBoundaryCacheDistance(int distance) {
+        boundaryCacheDistance = Math.max(0, distance);
+        if (adapter != null) {
+            adapter.setCacheDistance(boundaryCacheDistance);
+        }
+    }
+
+    /**
+     * Let the pager choose its offscreen page limit between {@code minLimit} and
+     * {@code maxLimit}. The limit grows while pages take a large part of a frame to bind and
+     * shrinks while they are cheap, is capped by the device's memory class, and drops to
+     * {@code minLimit} when memory runs low. It only changes while the pager is idle.
+     * Calling {@link #setOffscreenPageLimit(int)} turns the adaptation off again.
+     */
+    public void setAdaptiveOffscreenPageLimit(int minLimit, int maxLimit) {
+        ActivityManager activityManager =
+                (ActivityManager) getContext().getSystemService(Context.ACTIVITY_SERVICE);
+        offscreenPolicy = new OffscreenPagePolicy(minLimit, maxLimit, activityManager.getMemoryClass());
+        if (adapter != null) {
+            adapter.setOffscreenPolicy(offscreenPolicy);
+        }
+        applyOffscreenPolicy();
+    }
+
+    @Override
+    public void setOffscreenPageLimit(int limit) {
+        offscreenPolicy = null;
+        if (adapter != null) {
+            adapter.setOffscreenPolicy(null);
+        }
+        super.setOffscreenPageLimit(limit);
+    }
+
+    private void applyOffscreenPolicy() {
+        if (offscreenPolicy == null || adapter == null || scrollState != SCROLL_STATE_IDLE) {
+            return;
+        }
+        int limit = offscreenPolicy.computeLimit(adapter.getRealCount());
+        if (limit != getOffscreenPageLimit()) {
+            super.setOffscreenPageLimit(limit);
+        }
+    }
+
+    public int getBoundaryCacheHitCount() {
+        return adapter != null ? adapter.getCacheHitCount() : 0;
+    }
+
+    public int getBoundaryCacheMissCount() {
+        return adapter != null ? adapter.getCacheMissCount() : 0;
+    }
+
+    public int getBoundaryCacheEvictionCount() {
+        return adapter != null ? adapter.getCacheEvictionCount() : 0;
+    }
+
+    /**
+     * @return how many page views of a {@link RecyclingPagerAdapter} were rebound instead of
+     * created.
+     */
+    public int getPageViewReuseCount() {
+        return adapter != null ? adapter.getPageViewReuseCount() : 0;
+    }
+
+    public int getPageViewCreateCount() {
+        return adapter != null ? adapter.getPageViewCreateCount() : 0;
+    }
+
+    /**
+     * Count seam jumps and boundary cache hits and misses, and time page binds, into
+     * {@code metrics}; pass null to stop.
+     */
+    public void setMetrics(LoopMetrics metrics) {
+        this.metrics = metrics;
+        if (adapter != null) {
+            adapter.setMetrics(metrics);
+        }
+    }
+
+    /**
+     * Release cached pages according to a {@link ComponentCallbacks2} trim level. Called
+     * automatically while the pager is attached to a window.
+     */
+    public void onTrimMemory(int level) {
+        if (adapter != null) {
+            adapter.trimMemory(level);
+        }
+        if (offscreenPolicy != null) {
+            offscreenPolicy.onTrimMemory(level);
+            applyOffscreenPolicy();
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getContext().getApplicationContext().registerComponentCallbacks(memoryCallbacks);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        seamPrefetcher.cancel();
+        getContext().getApplicationContext().unregisterComponentCallbacks(memoryCallbacks);
+        super.onDetachedFromWindow();
     }
 
     @Override
     public void setAdapter(PagerAdapter adapter) {
+        seamPrefetcher.cancel();
+        if (this.adapter != null) {
+            this.adapter.release();
+        }
+        if (adapter == null) {
+            this.adapter = null;
+            super.setAdapter(null);
+            return;
+        }
         this.adapter = new LoopPagerAdapterWrapper(adapter);
         this.adapter.setBoundaryCaching(boundaryCaching);
+        this.adapter.setCacheCapacity(boundaryCacheCapacity);
+        this.adapter.setCacheDistance(boundaryCacheDistance);
+        this.adapter.setOffscreenPolicy(offscreenPolicy);
+        this.adapter.setMetrics(metrics);
+        this.adapter.setVirtualLoop(virtualLoop);
         super.setAdapter(this.adapter);
+        if (virtualLoop) {
+            super.setCurrentItem(this.adapter.toInnerPosition(0), false);
+        }
+    }
+
+    /**
+     * Loop by repeating the real pages thousands of times instead of adding a mirror page on
+     * each side. Crossing the seam is then an ordinary page change rather than a jump that
+     * repopulates the pager; the pager only moves back to the middle copy, without animation,
+     * when it comes to rest far from it. Not suitable for {@code FragmentPagerAdapter} and
+     * {@code FragmentStatePagerAdapter}, which see pager positions; use
+     * {@link LoopFragmentStatePagerAdapter} instead. Off by default.
+     */
+    public void setVirtualLoop(boolean enabled) {
+        if (virtualLoop == enabled) {
+            return;
+        }
+        virtualLoop = enabled;
+        if (adapter != null) {
+            // The count changes, so the pages are rebuilt around the current item
+            int current = getCurrentItem();
+            seamPrefetcher.cancel();
+            LoopPagerAdapterWrapper wrapper = adapter;
+            super.setAdapter(null);
+            wrapper.setVirtualLoop(enabled);
+            super.setAdapter(wrapper);
+            super.setCurrentItem(wrapper.toInnerPosition(current), false);
+        }
     }
 
     @Override
@@ -65,7 +277,7 @@ public class LoopViewPager extends ViewPager {
     }
 
     public void setCurrentItem(int item, boolean smoothScroll) {
-        int realItem = adapter.toInnerPosition(item);
+        int realItem = adapter.toInnerPosition(item, super.getCurrentItem());
         super.setCurrentItem(realItem, smoothScroll);
     }
 
@@ -76,6 +288,39 @@ public class LoopViewPager extends ViewPager {
         }
     }
 
+    /**
+     * Jump from a mirror page to the real page it shows, or in virtual loop mode, back to the
+     * middle copy.
+     */
+    private void jumpAcrossSeam(int realPosition) {
+        if (metrics == null) {
+            jumpTo(adapter.toInnerPosition(realPosition));
+            return;
+        }
+        metrics.increment(LoopMetrics.SEAM_JUMPS);
+        LoopTrace.beginSection(LoopMetrics.SECTION_SEAM_JUMP);
+        try {
+            jumpTo(adapter.toInnerPosition(realPosition));
+        } finally {
+            LoopTrace.endSection();
+        }
+    }
+
+    /**
+     * Move to {@code position} without animation. The live pages show the same real pages
+     * there, so they are handed over to their new positions instead of being destroyed and
+     * instantiated again, unless the adapter tracks its pages by position.
+     */
+    private void jumpTo(int position) {
+        int current = super.getCurrentItem();
+        if (position != current && adapter.canHandOverPages()) {
+            adapter.handOverPages(position - current);
+        }
+        if (super.getCurrentItem() != position) {
+            super.setCurrentItem(position, false);
+        }
+    }
+
     private OnPageChangeListener onPageChangeListener = new OnPageChangeListener() {
         private float mPreviousOffset = -1;
         private float mPreviousPosition = -1;
@@ -86,6 +331,7 @@ public class LoopViewPager extends ViewPager {
             int realPosition = adapter.toRealPosition(position);
             if (mPreviousPosition != realPosition) {
                 mPreviousPosition = realPosition;
+                seamPrefetcher.schedule();
                 if (outerPageChangeListener != null) {
                     outerPageChangeListener.onPageSelected(realPosition);
                 }
@@ -101,8 +347,8 @@ public class LoopViewPager extends ViewPager {
 
                 if (positionOffset == 0
                         && mPreviousOffset == 0
-                        && (position == 0 || position == adapter.getCount() - 1)) {
-                    setCurrentItem(realPosition, false);
+                        && adapter.isSeamPosition(position)) {
+                    jumpAcrossSeam(realPosition);
                 }
             }
 
@@ -124,14 +370,24 @@ public class LoopViewPager extends ViewPager {
 
         @Override
         public void onPageScrollStateChanged(int state) {
+            scrollState = state;
+            if (state == ViewPager.SCROLL_STATE_DRAGGING) {
+                seamPrefetcher.cancel();
+            }
             if (adapter != null) {
                 int position = LoopViewPager.super.getCurrentItem();
                 int realPosition = adapter.toRealPosition(position);
                 if (state == ViewPager.SCROLL_STATE_IDLE
-                        && (position == 0 || position == adapter.getCount() - 1)) {
-                    setCurrentItem(realPosition, false);
+                        && (adapter.isSeamPosition(position) || adapter.needsRecentring(position))) {
+                    jumpAcrossSeam(realPosition);
                 }
             }
+            if (state == ViewPager.SCROLL_STATE_IDLE) {
+                // After any seam jump, so the targets are computed for the real position and
+                // the new limit
+                applyOffscreenPolicy();
+                seamPrefetcher.schedule();
+            }
             if (outerPageChangeListener != null) {
                 outerPageChangeListener.onPageScrollStateChanged(state);
             }
@@ -3,7 +3,6 @@ package com.github.shoji_kuroda.looppagerslidingtabstrip;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
-import android.support.v4.app.FragmentPagerAdapter;
 import android.support.v7.app.AppCompatActivity;
 
 public class MainActivity extends AppCompatActivity {
@@ -27,14 +26,13 @@ public class MainActivity extends AppCompatActivity {
         tabs.setViewPager(pager);
     }
 
-    class GoogleMusicAdapter extends FragmentPagerAdapter {
+    class GoogleMusicAdapter extends LoopFragmentStatePagerAdapter {
         public GoogleMusicAdapter(FragmentManager fm) {
             super(fm);
         }
 
         @Override
         public Fragment getItem(int position) {
-            position = LoopViewPager.toRealPosition(position, getCount());
             return TestFragment.newInstance(CONTENT[position % CONTENT.length]);
         }
 
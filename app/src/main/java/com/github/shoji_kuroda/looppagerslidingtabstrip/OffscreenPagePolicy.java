@@ -0,0 +1,78 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+import android.content.ComponentCallbacks2;
+
+/**
+ * Picks the offscreen page limit of a {@link LoopViewPager} from how long its pages take to bind
+ * and how much memory the device gives the app.
+ * <p>
+ * Pages that take a large part of a frame to bind are bound further ahead, so they are ready
+ * before they scroll on screen; cheap pages let the limit shrink back to save memory. The limit
+ * never exceeds what the memory class allows, nor what it takes to retain every real page once.
+ */
+class OffscreenPagePolicy {
+
+    private static final long FRAME_NANOS = 16666667L;
+    // Binding a page in more than half a frame would drop frames if it happened on screen
+    private static final long GROW_NANOS = FRAME_NANOS / 2;
+    private static final long SHRINK_NANOS = FRAME_NANOS / 8;
+    private static final int SAMPLES_PER_STEP = 4;
+    private static final int MEMORY_CLASS_MB_PER_PAGE = 64;
+
+    private final int minLimit;
+    private final int memoryCap;
+    private int limit;
+    private long averageBindNanos;
+    private int samples;
+
+    /**
+     * @param memoryClass the app's memory class in megabytes, as reported by
+     *                    {@link android.app.ActivityManager#getMemoryClass()}.
+     */
+    OffscreenPagePolicy(int minLimit, int maxLimit, int memoryClass) {
+        this.minLimit = Math.max(1, minLimit);
+        this.memoryCap = Math.max(this.minLimit,
+                Math.min(maxLimit, memoryClass / MEMORY_CLASS_MB_PER_PAGE));
+        this.limit = this.minLimit;
+    }
+
+    /**
+     * Record that {@code pages} pages were bound in {@code nanos}.
+     */
+    void onPagesBound(int pages, long nanos) {
+        long sample = nanos / pages;
+        this.averageBindNanos = this.averageBindNanos == 0
+                ? sample
+                : this.averageBindNanos + (sample - this.averageBindNanos) / 4;
+        this.samples++;
+    }
+
+    /**
+     * Drop back to the minimum limit in response to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            this.limit = this.minLimit;
+            this.samples = 0;
+        }
+    }
+
+    /**
+     * Move the limit one step if enough bind times were recorded since the last step.
+     *
+     * @param realCount number of real pages; with the mirror pages, a limit above half of it
+     *                  would retain both copies of a page across the seam.
+     * @return the offscreen page limit to use.
+     */
+    int computeLimit(int realCount) {
+        if (this.samples >= SAMPLES_PER_STEP) {
+            if (this.averageBindNanos > GROW_NANOS && this.limit < this.memoryCap) {
+                this.limit++;
+            } else if (this.averageBindNanos < SHRINK_NANOS && this.limit > this.minLimit) {
+                this.limit--;
+            }
+            this.samples = 0;
+        }
+        return Math.max(1, Math.min(this.limit, realCount / 2));
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+import android.util.SparseArray;
+
+/**
+ * Pages the ViewPager released but {@link LoopPagerAdapterWrapper} kept alive, keyed by wrapper
+ * position, so they can be handed back without going through the inner adapter again.
+ * Holds at most {@link #getCapacity()} pages and evicts the least recently used one first.
+ */
+class PageCache {
+
+    static final int DEFAULT_CAPACITY = 2;
+    static final int DEFAULT_DISTANCE = 2;
+
+    interface OnEvictListener {
+
+        /**
+         * Called when a page leaves the cache without being reused. The listener must destroy it.
+         */
+        void onPageEvicted(LoopPagerAdapterWrapper.ToDestroy page);
+    }
+
+    private final SparseArray<LoopPagerAdapterWrapper.ToDestroy> entries = new SparseArray<>();
+    private final OnEvictListener evictListener;
+    private int capacity = DEFAULT_CAPACITY;
+    private long clock;
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+
+    PageCache(OnEvictListener evictListener) {
+        this.evictListener = evictListener;
+    }
+
+    int getCapacity() {
+        return this.capacity;
+    }
+
+    void setCapacity(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        trimToSize(this.capacity);
+    }
+
+    void put(int position, LoopPagerAdapterWrapper.ToDestroy page) {
+        page.lastUsed = ++this.clock;
+        LoopPagerAdapterWrapper.ToDestroy previous = this.entries.get(position);
+        this.entries.put(position, page);
+        if (previous != null && previous != page) {
+            evict(previous);
+        }
+        trimToSize(this.capacity);
+    }
+
+    /**
+     * Remove and return the page cached for {@code position}, counting a hit or a miss.
+     */
+    LoopPagerAdapterWrapper.ToDestroy take(int position) {
+        LoopPagerAdapterWrapper.ToDestroy page = this.entries.get(position);
+        if (page == null) {
+            this.missCount++;
+            return null;
+        }
+        this.entries.remove(position);
+        this.hitCount++;
+        return page;
+    }
+
+    /**
+     * Evict least recently used pages until at most {@code maxSize} remain. Prefetched pages go
+     * last: the pager releases pages after they were prefetched, but needs them less.
+     */
+    void trimToSize(int maxSize) {
+        while (this.entries.size() > maxSize) {
+            int oldest = 0;
+            for (int i = 1; i < this.entries.size(); i++) {
+                if (isOlder(this.entries.valueAt(i), this.entries.valueAt(oldest))) {
+                    oldest = i;
+                }
+            }
+            LoopPagerAdapterWrapper.ToDestroy page = this.entries.valueAt(oldest);
+            this.entries.removeAt(oldest);
+            evict(page);
+        }
+    }
+
+    private static boolean isOlder(LoopPagerAdapterWrapper.ToDestroy page,
+                                   LoopPagerAdapterWrapper.ToDestroy other) {
+        if (page.prefetched != other.prefetched) {
+            return !page.prefetched;
+        }
+        return page.lastUsed < other.lastUsed;
+    }
+
+    /**
+     * Let prefetched pages be evicted in plain LRU order again, once they are no longer needed
+     * for a seam jump.
+     */
+    void clearPrefetched() {
+        for (int i = 0; i < this.entries.size(); i++) {
+            this.entries.valueAt(i).prefetched = false;
+        }
+    }
+
+    private void evict(LoopPagerAdapterWrapper.ToDestroy page) {
+        this.evictionCount++;
+        this.evictListener.onPageEvicted(page);
+    }
+
+    int size() {
+        return this.entries.size();
+    }
+
+    int keyAt(int index) {
+        return this.entries.keyAt(index);
+    }
+
+    LoopPagerAdapterWrapper.ToDestroy valueAt(int index) {
+        return this.entries.valueAt(index);
+    }
+
+    void removeAt(int index) {
+        this.entries.removeAt(index);
+    }
+
+    int getHitCount() {
+        return this.hitCount;
+    }
+
+    int getMissCount() {
+        return this.missCount;
+    }
+
+    int getEvictionCount() {
+        return this.evictionCount;
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+import java.util.HashMap;
+
+/**
+ * Difference between two lists of page keys, as reported by
+ * {@link LoopViewPager.KeyedAdapter#getPageKey(int)}. Keys are compared with
+ * {@link Object#equals(Object)}; when a key appears more than once its occurrences are matched
+ * in order.
+ */
+final class PageDiff {
+
+    static final int NO_POSITION = -1;
+
+    private final int[] oldToNew;
+    private final int[] newToOld;
+
+    private PageDiff(int[] oldToNew, int[] newToOld) {
+        this.oldToNew = oldToNew;
+        this.newToOld = newToOld;
+    }
+
+    static PageDiff compute(Object[] oldKeys, Object[] newKeys) {
+        int[] oldToNew = new int[oldKeys.length];
+        int[] newToOld = new int[newKeys.length];
+
+        // Index the old keys, chaining duplicates through nextOld
+        HashMap<Object, Integer> firstOld = new HashMap<>(oldKeys.length * 2);
+        int[] nextOld = new int[oldKeys.length];
+        for (int i = oldKeys.length - 1; i >= 0; i--) {
+            Integer head = firstOld.put(oldKeys[i], i);
+            nextOld[i] = head != null ? head : NO_POSITION;
+            oldToNew[i] = NO_POSITION;
+        }
+        for (int i = 0; i < newKeys.length; i++) {
+            Integer match = firstOld.get(newKeys[i]);
+            if (match == null) {
+                newToOld[i] = NO_POSITION;
+            } else {
+                newToOld[i] = match;
+                oldToNew[match] = i;
+                if (nextOld[match] == NO_POSITION) {
+                    firstOld.remove(newKeys[i]);
+                } else {
+                    firstOld.put(newKeys[i], nextOld[match]);
+                }
+            }
+        }
+        return new PageDiff(oldToNew, newToOld);
+    }
+
+    /**
+     * @return the new position of the page at {@code oldPosition}, or {@link #NO_POSITION} if it
+     * was removed.
+     */
+    int toNewPosition(int oldPosition) {
+        return oldToNew[oldPosition];
+    }
+
+    /**
+     * @return the old position of the page now at {@code newPosition}, or {@link #NO_POSITION}
+     * if it was inserted.
+     */
+    int toOldPosition(int newPosition) {
+        return newToOld[newPosition];
+    }
+
+    /**
+     * @return true if the page now at {@code newPosition} was inserted or moved.
+     */
+    boolean isChanged(int newPosition) {
+        return newToOld[newPosition] != newPosition;
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Page views of a {@link RecyclingPagerAdapter}, kept by {@link LoopPagerAdapterWrapper} once
+ * their pages are destroyed so they can be rebound for other positions of the same view type.
+ * Keeps at most {@link RecyclingPagerAdapter#getMaxRecycledViews(int)} views per type.
+ */
+class PageViewPool {
+
+    private final RecyclingPagerAdapter adapter;
+    private final SparseArray<ArrayList<View>> scrapViews = new SparseArray<>();
+    // View type of every page view currently in use
+    private final IdentityHashMap<View, Integer> viewTypes = new IdentityHashMap<>();
+    private int reuseCount;
+    private int createCount;
+
+    PageViewPool(RecyclingPagerAdapter adapter) {
+        this.adapter = adapter;
+    }
+
+    /**
+     * Get a view for {@code position} from the adapter, passing it a recycled view if one of
+     * the right type is available.
+     */
+    View obtain(ViewGroup container, int position) {
+        int viewType = this.adapter.getItemViewType(position);
+        ArrayList<View> scrap = this.scrapViews.get(viewType);
+        View convertView = scrap == null || scrap.isEmpty() ? null : scrap.remove(scrap.size() - 1);
+        View view = this.adapter.getView(position, convertView, container);
+        if (view == convertView) {
+            this.reuseCount++;
+        } else {
+            this.createCount++;
+        }
+        this.viewTypes.put(view, viewType);
+        return view;
+    }
+
+    /**
+     * Take back a detached page view, dropping it if its type's pool is full.
+     */
+    void recycle(View view) {
+        Integer viewType = this.viewTypes.remove(view);
+        if (viewType == null) {
+            return;
+        }
+        ArrayList<View> scrap = this.scrapViews.get(viewType);
+        if (scrap == null) {
+            scrap = new ArrayList<>();
+            this.scrapViews.put(viewType, scrap);
+        }
+        if (scrap.size() < this.adapter.getMaxRecycledViews(viewType)) {
+            scrap.add(view);
+        }
+    }
+
+    void clear() {
+        this.scrapViews.clear();
+    }
+
+    int getReuseCount() {
+        return this.reuseCount;
+    }
+
+    int getCreateCount() {
+        return this.createCount;
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+import android.support.v4.view.PagerAdapter;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * View-based {@link PagerAdapter} whose page views are recycled, like the views of a
+ * {@code RecyclerView}. Under a {@link LoopViewPager}, a destroyed page's view goes into a pool
+ * per {@link #getItemViewType(int) view type} and is handed back to
+ * {@link #getView(int, View, ViewGroup)} to be rebound for another position, so swiping through
+ * pages that share a few layouts stops inflating new views.
+ * <p>
+ * Outside a {@link LoopViewPager} the adapter still works, without recycling.
+ */
+public abstract class RecyclingPagerAdapter extends PagerAdapter {
+
+    public static final int DEFAULT_MAX_RECYCLED_VIEWS = 2;
+
+    /**
+     * Return the view for {@code position}, rebinding {@code convertView} if it is not null.
+     * {@code convertView} was created by this method for a position of the same view type.
+     * The returned view must not have a parent; it is added to {@code container} for you.
+     */
+    public abstract View getView(int position, View convertView, ViewGroup container);
+
+    /**
+     * @return the view type of the page at {@code position}. Only views of the same type are
+     * reused for each other.
+     */
+    public int getItemViewType(int position) {
+        return 0;
+    }
+
+    /**
+     * @return how many detached views of {@code viewType} are kept for reuse.
+     */
+    public int getMaxRecycledViews(int viewType) {
+        return DEFAULT_MAX_RECYCLED_VIEWS;
+    }
+
+    @Override
+    public Object instantiateItem(ViewGroup container, int position) {
+        View view = getView(position, null, container);
+        container.addView(view);
+        return view;
+    }
+
+    @Override
+    public void destroyItem(ViewGroup container, int position, Object object) {
+        container.removeView((View) object);
+    }
+
+    @Override
+    public boolean isViewFromObject(View view, Object object) {
+        return view == object;
+    }
+}
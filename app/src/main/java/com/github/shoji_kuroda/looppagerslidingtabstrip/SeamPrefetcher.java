@@ -0,0 +1,109 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+import android.os.Looper;
+import android.os.MessageQueue;
+
+/**
+ * Instantiates, while the main thread is idle, the pages a {@link LoopViewPager} will need on
+ * the far side of the seam once it jumps from a mirror page back to the real one. The pages go
+ * into the boundary cache, so the jump finds them there instead of binding them on screen.
+ * <p>
+ * Work is split into idle slots of at most {@link #PAGES_PER_IDLE} pages and
+ * {@link #IDLE_BUDGET_NANOS}, and is cancelled as soon as the user touches the pager.
+ */
+class SeamPrefetcher implements MessageQueue.IdleHandler {
+
+    private static final int PAGES_PER_IDLE = 1;
+    private static final long IDLE_BUDGET_NANOS = 4000000L; // 4ms
+
+    private final LoopViewPager pager;
+    private int[] targets = new int[4];
+    private int targetCount;
+    private int nextTarget;
+    private boolean scheduled;
+
+    SeamPrefetcher(LoopViewPager pager) {
+        this.pager = pager;
+    }
+
+    /**
+     * Work out the pages needed around the seam for the current item and start prefetching
+     * them in idle slots. Replaces any pending work.
+     */
+    void schedule() {
+        cancel();
+        LoopPagerAdapterWrapper adapter = this.pager.getWrapperAdapter();
+        // Virtual loop mode has no seam jump to prepare for
+        if (adapter == null || !adapter.isBoundaryCaching() || adapter.isVirtualLoop()) {
+            return;
+        }
+        int count = adapter.getRealCount();
+        if (count < 2) {
+            return;
+        }
+        int current = this.pager.getInnerCurrentItem();
+        int limit = this.pager.getOffscreenPageLimit();
+        // Pages the jump hands over from the mirror's side cover the landing page and beyond;
+        // prefetching those would only make duplicates for the handover to destroy
+        boolean handOver = adapter.canHandOverPages();
+        if (current + limit + 1 >= count + 1) {
+            // Near the end: the jump from the last mirror lands on the first real page
+            addTargets(handOver ? 2 : Math.max(0, 1 - limit), 1 + limit, current, limit);
+        }
+        if (current - limit - 1 <= 0) {
+            // Near the start: the jump from the first mirror lands on the last real page
+            addTargets(count - limit, handOver ? count - 1 : Math.min(count + 1, count + limit),
+                    current, limit);
+        }
+        if (this.targetCount > 0) {
+            this.scheduled = true;
+            Looper.myQueue().addIdleHandler(this);
+        } else {
+            adapter.clearPrefetched();
+        }
+    }
+
+    void cancel() {
+        if (this.scheduled) {
+            this.scheduled = false;
+            Looper.myQueue().removeIdleHandler(this);
+        }
+        this.targetCount = 0;
+        this.nextTarget = 0;
+    }
+
+    @Override
+    public boolean queueIdle() {
+        LoopPagerAdapterWrapper adapter = this.pager.getWrapperAdapter();
+        if (adapter == null) {
+            this.scheduled = false;
+            return false;
+        }
+        long start = System.nanoTime();
+        int prefetched = 0;
+        while (this.nextTarget < this.targetCount
+                && prefetched < PAGES_PER_IDLE
+                && System.nanoTime() - start < IDLE_BUDGET_NANOS) {
+            if (adapter.prefetch(this.pager, this.targets[this.nextTarget++])) {
+                prefetched++;
+            }
+        }
+        this.scheduled = this.nextTarget < this.targetCount;
+        return this.scheduled;
+    }
+
+    private void addTargets(int from, int to, int current, int limit) {
+        for (int position = from; position <= to; position++) {
+            // Pages within the offscreen limit are already held by the pager
+            if (Math.abs(position - current) <= limit) {
+                continue;
+            }
+            if (this.targetCount == this.targets.length) {
+                int[] grown = new int[this.targets.length * 2];
+                System.arraycopy(this.targets, 0, grown, 0, this.targetCount);
+                this.targets = grown;
+            }
+            this.targets[this.targetCount++] = position;
+        }
+    }
+}
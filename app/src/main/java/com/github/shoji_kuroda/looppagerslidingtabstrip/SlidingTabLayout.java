@@ -2,14 +2,18 @@ package com.github.shoji_kuroda.looppagerslidingtabstrip;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.database.DataSetObserver;
+import android.graphics.Canvas;
 import android.graphics.Typeface;
-import android.os.Handler;
+import android.os.AsyncTask;
 import android.support.v4.view.PagerAdapter;
 import android.support.v4.view.ViewPager;
+import android.text.TextUtils;
+import android.text.method.TransformationMethod;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.util.SparseArray;
 import android.util.TypedValue;
+import android.view.Choreographer;
 import android.view.GestureDetector;
 import android.view.Gravity;
 import android.view.LayoutInflater;
@@ -49,16 +53,45 @@ public class SlidingTabLayout extends HorizontalScrollView {
     private int tabViewTextViewId;
     private int lastScrollTo;
     private boolean distributeEvenly;
+    private int selectedTab;
+    private CharSequence[] tabTitles = new CharSequence[0];
+    private Object[] tabKeys = new Object[0];
+    private PagerAdapter observedAdapter;
+    // Bumped whenever the tab titles change, so onMeasure knows its cached result is stale
+    private int tabsVersion;
+    private int measuredWidthSpec;
+    private int measuredHeightSpec;
+    private int measuredTabCount = -1;
+    private int measuredTabsVersion;
+    private int measuredWidth;
+    private int measuredHeight;
+    // Size the strip ended up with in the cached pass
+    private int measuredStripWidth;
+    private int measuredStripHeight;
+    private final InternalViewPagerListener pageChangeListener = new InternalViewPagerListener();
+    private final DataSetObserver tabsObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            updateTabStrip();
+        }
+    };
+    private final TabViewPool tabViewPool = new TabViewPool();
+    private final TabViewBinder tabViewBinder = new TabViewBinder();
+    private final TabTitleMetrics titleMetrics = new TabTitleMetrics(AsyncTask.THREAD_POOL_EXECUTOR);
+    // Default tab view kept to derive the title paint, transformation and padding from
+    private TextView titlePrototype;
+    private CharSequence[] displayTitles = new CharSequence[0];
 
     private LoopViewPager viewPager;
-    private InnerLayout mInnerLayout;
     private SparseArray<String> contentDescriptions = new SparseArray<String>();
     private ViewPager.OnPageChangeListener viewPagerPageChangeListener;
+    private boolean dispatchEveryScroll;
+    private LoopMetrics metrics;
     private AnimeManager mAnimeManager;
     private GestureDetector mGestureDetector;
     private CustomOnGestureListener mOnGestureListener = new CustomOnGestureListener();
 
-    private final SlidingTabStrip[] tabStrip;
+    private final SlidingTabStrip tabStrip;
 
     public SlidingTabLayout(Context context) {
         this(context, null);
@@ -79,22 +112,17 @@ public class SlidingTabLayout extends HorizontalScrollView {
         mAnimeManager = new AnimeManager();
         mGestureDetector = new GestureDetector(context, mOnGestureListener);
 
-        mInnerLayout = new InnerLayout(context);
-        mInnerLayout.setOrientation(LinearLayout.HORIZONTAL);
-        LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(
-                LayoutParams.WRAP_CONTENT, LayoutParams.MATCH_PARENT);
-        mInnerLayout.setLayoutParams(params);
-        this.addView(mInnerLayout);
+        // タブを3つ分タイル表示する1本のストリップ
+        this.tabStrip = createTabStrip(context);
+        this.addView(this.tabStrip, LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
+    }
 
-        // タブを3つつなげる
-        this.tabStrip = new SlidingTabStrip[3];
-        this.tabStrip[0] = new SlidingTabStrip(context);
-        this.tabStrip[1] = new SlidingTabStrip(context);
-        this.tabStrip[2] = new SlidingTabStrip(context);
-        mInnerLayout.removeAllViews();
-        for (SlidingTabStrip tab : this.tabStrip) {
-            mInnerLayout.addView(tab, LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
-        }
+    /**
+     * Creates the tab strip. Called from the constructor, so overrides must not rely on their
+     * own fields; tests override it to count the strip's layout and draw passes.
+     */
+    SlidingTabStrip createTabStrip(Context context) {
+        return new SlidingTabStrip(context);
     }
 
     /**
@@ -105,24 +133,62 @@ public class SlidingTabLayout extends HorizontalScrollView {
      * similar effects.
      */
     public void setCustomTabColorizer(TabColorizer tabColorizer) {
-        mInnerLayout.removeAllViews();
-        for (SlidingTabStrip tab : this.tabStrip) {
-            tab.setCustomTabColorizer(tabColorizer);
-        }
+        this.tabStrip.setCustomTabColorizer(tabColorizer);
     }
 
     public void setDistributeEvenly(boolean distributeEvenly) {
         this.distributeEvenly = distributeEvenly;
     }
 
+    /**
+     * Optimise for catalogs of hundreds or thousands of tabs: only the tabs on and near the
+     * screen are measured, the others are assumed as wide as the first tab until they scroll
+     * into view. Scrolling then costs the same for any number of tabs. Off by default; has no
+     * effect with {@link #setDistributeEvenly(boolean)}.
+     */
+    public void setLargeCatalogMode(boolean enabled) {
+        this.tabStrip.setEstimatedTabWidths(enabled);
+    }
+
+    /**
+     * Time tab view creation and the drawing of this layout into {@code metrics}; pass null to
+     * stop. Usually the same instance as given to {@link LoopViewPager#setMetrics(LoopMetrics)}.
+     */
+    public void setMetrics(LoopMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Cache each tab's label in a hardware layer, so swiping the pager only redraws the
+     * selection indicator over the cached tabs. Off by default; has no effect without hardware
+     * acceleration.
+     */
+    public void setTabLayersEnabled(boolean enabled) {
+        this.tabStrip.setTabLayersEnabled(enabled);
+    }
+
     /**
      * Sets the colors to be used for indicating the selected tab. These colors are treated as a
      * circular array. Providing one color will mean that all tabs are indicated with the same color.
      */
     public void setSelectedIndicatorColors(int... colors) {
-        for (SlidingTabStrip tab : this.tabStrip) {
-            tab.setSelectedIndicatorColors(colors);
-        }
+        this.tabStrip.setSelectedIndicatorColors(colors);
+    }
+
+    /**
+     * Blend the indicator colors of neighbouring tabs in linear light, honouring their alpha,
+     * rather than mixing the opaque sRGB channels. Off by default.
+     */
+    public void setLinearIndicatorBlending(boolean linear) {
+        this.tabStrip.setLinearIndicatorBlending(linear);
+    }
+
+    /**
+     * Indicator colors are resolved once per tab and cached. Call this when a custom
+     * {@link TabColorizer} starts returning different colors.
+     */
+    public void notifyIndicatorColorsChanged() {
+        this.tabStrip.invalidateIndicatorColors();
     }
 
     /**
@@ -133,7 +199,19 @@ public class SlidingTabLayout extends HorizontalScrollView {
      * @see ViewPager#setOnPageChangeListener(ViewPager.OnPageChangeListener)
      */
     public void setOnPageChangeListener(ViewPager.OnPageChangeListener listener) {
+        setOnPageChangeListener(listener, false);
+    }
+
+    /**
+     * Set the {@link ViewPager.OnPageChangeListener}. Scroll callbacks are coalesced, so the
+     * listener gets at most one {@link ViewPager.OnPageChangeListener#onPageScrolled} per frame
+     * carrying the latest offset, unless {@code everyScroll} is true.
+     *
+     * @param everyScroll forward every {@code onPageScrolled} as the pager reports it.
+     */
+    public void setOnPageChangeListener(ViewPager.OnPageChangeListener listener, boolean everyScroll) {
         viewPagerPageChangeListener = listener;
+        dispatchEveryScroll = everyScroll;
     }
 
     /**
@@ -148,16 +226,25 @@ public class SlidingTabLayout extends HorizontalScrollView {
     }
 
     /**
-     * Sets the associated view pager. Note that the assumption here is that the pager content
-     * (number of tabs and tab titles) does not change after this call has been made.
+     * Sets the associated view pager. Later changes to the pager's adapter are picked up through
+     * {@link PagerAdapter#notifyDataSetChanged()}; implement {@link LoopViewPager.KeyedAdapter}
+     * so that only inserted, removed and moved tabs are rebound.
      */
     public void setViewPager(LoopViewPager viewPager) {
-        for (SlidingTabStrip tab : this.tabStrip) {
-            tab.removeAllViews();
+        this.tabStrip.setTabs(0, null, this.tabViewPool, this.distributeEvenly);
+        if (this.viewPager != null) {
+            this.viewPager.removeOnPageChangeListener(this.pageChangeListener);
+            this.pageChangeListener.cancelScroll();
+        }
+        if (this.observedAdapter != null) {
+            this.observedAdapter.unregisterDataSetObserver(this.tabsObserver);
+            this.observedAdapter = null;
         }
         this.viewPager = viewPager;
         if (this.viewPager != null) {
-            this.viewPager.addOnPageChangeListener(new InternalViewPagerListener());
+            this.viewPager.addOnPageChangeListener(this.pageChangeListener);
+            this.observedAdapter = this.viewPager.getAdapter();
+            this.observedAdapter.registerDataSetObserver(this.tabsObserver);
             populateTabStrip();
         }
     }
@@ -188,65 +275,165 @@ public class SlidingTabLayout extends HorizontalScrollView {
 
     private void populateTabStrip() {
         final PagerAdapter adapter = this.viewPager.getAdapter();
-        final View.OnClickListener tabClickListener = new TabClickListener();
-
-        for (int i = 0; i < adapter.getCount(); i++) {
-            for (SlidingTabStrip tab : this.tabStrip) {
-
-                View tabView = null;
-                TextView tabTitleView = null;
-
-                if (this.tabViewLayoutId != 0) {
-                    // If there is a custom tab view layout id set, try and inflate it
-                    tabView = LayoutInflater.from(getContext()).inflate(this.tabViewLayoutId, tab, false);
-                    tabTitleView = (TextView) tabView.findViewById(this.tabViewTextViewId);
-                }
-
-                if (tabView == null) {
-                    tabView = createDefaultTabView(getContext());
-                }
-
-                if (tabTitleView == null && TextView.class.isInstance(tabView)) {
-                    tabTitleView = (TextView) tabView;
-                }
-
-                if (distributeEvenly) {
-                    LinearLayout.LayoutParams lp = (LinearLayout.LayoutParams) tabView.getLayoutParams();
-                    lp.width = 0;
-                    lp.weight = 1;
-                }
-
-                tabTitleView.setText(adapter.getPageTitle(i));
-                tabView.setOnClickListener(tabClickListener);
-                String desc = contentDescriptions.get(i, null);
-                if (desc != null) {
-                    tabView.setContentDescription(desc);
-                }
-
-                tab.addView(tabView);
-                if (i == this.viewPager.getCurrentItem()) {
-                    tabView.setSelected(true);
-                }
-            }
+        final int count = adapter.getCount();
+
+        // Titles are read once and shared by every copy; tab views are only bound on demand.
+        this.tabTitles = new CharSequence[count];
+        this.tabKeys = new Object[count];
+        readTabs(adapter, this.tabTitles, this.tabKeys);
+        this.selectedTab = this.viewPager.getCurrentItem();
+        this.tabViewPool.clear();
+        if (this.tabViewLayoutId == 0 && this.titlePrototype == null) {
+            // The prototype then serves as the first pooled tab view
+            this.titlePrototype = (TextView) this.tabViewBinder.createTabView(this.tabStrip);
+            this.titleMetrics.setPaint(this.titlePrototype.getPaint());
+            this.tabViewPool.release(this.titlePrototype);
         }
+        // タイトル幅の計測をバックグラウンドで先行させる
+        this.displayTitles = toDisplayTitles(this.tabTitles);
+        this.titleMetrics.precompute(this.displayTitles);
+        this.tabStrip.setTabs(count, this.tabViewBinder, this.tabViewPool, this.distributeEvenly);
+        this.tabsVersion++;
+        this.tabStrip.setSelectedTab(this.selectedTab);
         requestLayout();
     }
 
+    /**
+     * Apply a change of the pager's adapter, rebinding only the tabs that were inserted, moved
+     * or renamed.
+     */
+    private void updateTabStrip() {
+        final PagerAdapter adapter = this.viewPager.getAdapter();
+        final int count = adapter.getCount();
+        CharSequence[] titles = new CharSequence[count];
+        Object[] keys = new Object[count];
+        readTabs(adapter, titles, keys);
+
+        PageDiff diff = PageDiff.compute(this.tabKeys, keys);
+        boolean[] changed = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            int oldPosition = diff.toOldPosition(i);
+            changed[i] = diff.isChanged(i) || !TextUtils.equals(this.tabTitles[oldPosition], titles[i]);
+        }
+        this.tabTitles = titles;
+        this.tabKeys = keys;
+        this.displayTitles = toDisplayTitles(titles);
+        for (boolean c : changed) {
+            if (c) {
+                this.tabsVersion++;
+                break;
+            }
+        }
+        // 変更されたタイトルだけを先行計測する。間に合わなかった分はその場で計測される
+        CharSequence[] changedTitles = new CharSequence[count];
+        for (int i = 0; i < count; i++) {
+            if (changed[i]) {
+                changedTitles[i] = this.displayTitles[i];
+            }
+        }
+        this.titleMetrics.precompute(changedTitles);
+        this.selectedTab = this.viewPager.getCurrentItem();
+        this.tabStrip.notifyTabsChanged(count, changed);
+        this.tabStrip.setSelectedTab(this.selectedTab);
+    }
+
+    /**
+     * @return the titles as the default tab view displays them, e.g. in all caps.
+     */
+    private CharSequence[] toDisplayTitles(CharSequence[] titles) {
+        CharSequence[] displayTitles = new CharSequence[titles.length];
+        TransformationMethod method = this.titlePrototype != null
+                ? this.titlePrototype.getTransformationMethod()
+                : null;
+        for (int i = 0; i < titles.length; i++) {
+            displayTitles[i] = method != null && titles[i] != null
+                    ? method.getTransformation(titles[i], this.titlePrototype)
+                    : titles[i];
+        }
+        return displayTitles;
+    }
+
+    private static void readTabs(PagerAdapter adapter, CharSequence[] titles, Object[] keys) {
+        LoopViewPager.KeyedAdapter keyedAdapter = adapter instanceof LoopViewPager.KeyedAdapter
+                ? (LoopViewPager.KeyedAdapter) adapter
+                : null;
+        for (int i = 0; i < titles.length; i++) {
+            titles[i] = adapter.getPageTitle(i);
+            // Without keys the titles identify the tabs
+            keys[i] = keyedAdapter != null ? keyedAdapter.getPageKey(i) : titles[i];
+        }
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        super.onLayout(changed, l, t, r, b);
+        updateTabWindows();
+    }
+
+    @Override
+    protected void onScrollChanged(int l, int t, int oldl, int oldt) {
+        super.onScrollChanged(l, t, oldl, oldt);
+        updateTabWindows();
+    }
+
+    /**
+     * Tell the strip which part of it is on screen so it can bind or recycle its tab views.
+     */
+    private void updateTabWindows() {
+        int left = getScrollX();
+        this.tabStrip.setVisibleRange(left, left + getWidth());
+        int correction = this.tabStrip.consumeScrollCorrection();
+        if (correction != 0) {
+            // Keeps the tabs on screen still after tabs before them were measured
+            scrollBy(correction, 0);
+        }
+    }
+
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
-        if (this.viewPager == null) {
+        if (this.viewPager == null || this.viewPager.getAdapter() == null) {
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
             return;
         }
-        if (tabStrip == null) {
+        final int count = this.viewPager.getAdapter().getCount();
+        // 入力が前回と同じならストリップの再計測は不要。ストリップの幅はビューポート幅だけで決まる
+        if (widthMeasureSpec == this.measuredWidthSpec && heightMeasureSpec == this.measuredHeightSpec
+                && count == this.measuredTabCount && this.tabsVersion == this.measuredTabsVersion
+                && !this.tabStrip.isLayoutRequested()
+                && this.tabStrip.getMeasuredWidth() == this.measuredStripWidth
+                && this.tabStrip.getMeasuredHeight() == this.measuredStripHeight) {
+            setMeasuredDimension(this.measuredWidth, this.measuredHeight);
             return;
         }
-        int width = MeasureSpec.getSize(widthMeasureSpec);
-        for (SlidingTabStrip tab : this.tabStrip) {
-            LinearLayout.LayoutParams lp = (LinearLayout.LayoutParams) tab.getLayoutParams();
-            lp.width = width / 3 * viewPager.getAdapter().getCount();
-        }
+
+        // The scroll view measures the strip with an unspecified width, so tell it the viewport
+        this.tabStrip.setViewportWidth(MeasureSpec.getSize(widthMeasureSpec));
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+
+        this.measuredWidthSpec = widthMeasureSpec;
+        this.measuredHeightSpec = heightMeasureSpec;
+        this.measuredTabCount = count;
+        this.measuredTabsVersion = this.tabsVersion;
+        this.measuredWidth = getMeasuredWidth();
+        this.measuredHeight = getMeasuredHeight();
+        this.measuredStripWidth = this.tabStrip.getMeasuredWidth();
+        this.measuredStripHeight = this.tabStrip.getMeasuredHeight();
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        if (this.metrics == null) {
+            super.draw(canvas);
+            return;
+        }
+        LoopTrace.beginSection(LoopMetrics.SECTION_TAB_DRAW);
+        long start = System.nanoTime();
+        try {
+            super.draw(canvas);
+        } finally {
+            this.metrics.record(LoopMetrics.TAB_DRAW, System.nanoTime() - start);
+            LoopTrace.endSection();
+        }
     }
 
     public void setContentDescription(int i, String desc) {
@@ -262,57 +449,121 @@ public class SlidingTabLayout extends HorizontalScrollView {
         }
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        mAnimeManager.stopFling();
+        this.pageChangeListener.cancelScroll();
+        super.onDetachedFromWindow();
+    }
+
     private void scrollToTab(int tabIndex, int positionOffset) {
-        Log.d("aaa", "scrollTab : " + tabIndex + " / " + positionOffset);
-        final int tabStripChildCount = this.tabStrip[1].getChildCount();
-        if (tabStripChildCount == 0 || tabIndex < 0 || tabIndex >= tabStripChildCount) {
+        if (LoopTrace.ENABLED) LoopTrace.d(TAG, "scrollTab : " + tabIndex + " / " + positionOffset);
+        final int tabCount = this.tabStrip.getTabCount();
+        if (tabCount == 0 || tabIndex < 0 || tabIndex >= tabCount) {
             return;
         }
-        View selectedChild = this.tabStrip[1].getChildAt(tabIndex);
-        if (selectedChild != null && selectedChild.getMeasuredWidth() != 0) {
-            int targetScrollX = ((positionOffset + selectedChild.getLeft()) - getWidth() / 2) + selectedChild.getWidth() / 2;
+        int selectedWidth = this.tabStrip.getTabWidth(tabIndex);
+        if (selectedWidth != 0) {
+            int targetScrollX = ((positionOffset + this.tabStrip.getTabLeft(tabIndex)) - getWidth() / 2) + selectedWidth / 2;
             if (targetScrollX != lastScrollTo) {
-                int unitWidth = computeHorizontalScrollRange() / 3;
-                scrollTo(targetScrollX + unitWidth, 0);
+                scrollTo(targetScrollX + this.tabStrip.getCenterCopyOffset(), 0);
                 lastScrollTo = targetScrollX;
             }
         }
     }
 
-    private class InternalViewPagerListener implements ViewPager.OnPageChangeListener {
+    /**
+     * Follows the pager. While the user drags, scroll offsets reported several times within a
+     * frame are applied to the tabs once, on the next {@link Choreographer} frame, with the latest
+     * offset. Other offsets, e.g. from {@link ViewPager#computeScroll()} while the pager settles,
+     * arrive during the draw pass once per frame and are applied right away.
+     */
+    private class InternalViewPagerListener implements ViewPager.OnPageChangeListener,
+            Choreographer.FrameCallback {
         private int scrollState;
+        private boolean scrollPending;
+        private int pendingPosition;
+        private float pendingOffset;
+        private int pendingOffsetPixels;
 
         @Override
         public void onPageScrolled(int position, float positionOffset, int positionOffsetPixels) {
-            Log.d("aaa", "onPageScrolled : " + position);
+            if (LoopTrace.ENABLED) LoopTrace.d(TAG, "onPageScrolled : " + position);
             position = LoopViewPager.toRealPosition(position, viewPager.getAdapter().getCount());
-            int tabStripChildCount = tabStrip[1].getChildCount();
-            if ((tabStripChildCount == 0) || (position < 0) || (position >= tabStripChildCount)) {
+            int tabCount = tabStrip.getTabCount();
+            if ((tabCount == 0) || (position < 0) || (position >= tabCount)) {
+                return;
+            }
+            if (viewPagerPageChangeListener != null && dispatchEveryScroll) {
+                viewPagerPageChangeListener.onPageScrolled(position, positionOffset,
+                        positionOffsetPixels);
+            }
+
+            // 同じフレーム内のスクロールは最後の値だけを反映する
+            this.pendingPosition = position;
+            this.pendingOffset = positionOffset;
+            this.pendingOffsetPixels = positionOffsetPixels;
+            if (this.scrollState != ViewPager.SCROLL_STATE_DRAGGING) {
+                // A callback posted from the draw pass would only run next frame, one frame behind
+                cancelScroll();
+                applyScroll();
                 return;
             }
-            for (SlidingTabStrip tab : tabStrip) {
-                tab.onViewPagerPageChanged(position, positionOffset);
+            if (!this.scrollPending) {
+                this.scrollPending = true;
+                Choreographer.getInstance().postFrameCallback(this);
             }
-            View selectedTitle = tabStrip[1].getChildAt(position);
-            int selectedOffset = (selectedTitle == null) ? 0 : selectedTitle.getWidth();
-            int nextTitlePosition = position + 1;
-            View nextTitle = tabStrip[1].getChildAt(nextTitlePosition);
-            if (nextTitle == null) {
-                nextTitle = tabStrip[1].getChildAt(0);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            this.scrollPending = false;
+            applyScroll();
+        }
+
+        /**
+         * Apply a pending scroll right away, so it is not applied after a later page change.
+         */
+        void flushScroll() {
+            if (this.scrollPending) {
+                Choreographer.getInstance().removeFrameCallback(this);
+                this.scrollPending = false;
+                applyScroll();
             }
-            int nextOffset = (nextTitle == null) ? 0 : nextTitle.getWidth();
+        }
+
+        void cancelScroll() {
+            if (this.scrollPending) {
+                Choreographer.getInstance().removeFrameCallback(this);
+                this.scrollPending = false;
+            }
+        }
+
+        private void applyScroll() {
+            final int position = this.pendingPosition;
+            final float positionOffset = this.pendingOffset;
+            int tabCount = tabStrip.getTabCount();
+            if (position >= tabCount) {
+                return;
+            }
+            int selectedOffset = tabStrip.getTabWidth(position);
+            int nextTitlePosition = (position + 1) % tabCount;
+            int nextOffset = tabStrip.getTabWidth(nextTitlePosition);
             int extraOffset = (int) (0.5F * (positionOffset * (float) (selectedOffset + nextOffset)));
 
+            // Scroll first so the strip limits its update to the copies now on screen
             scrollToTab(position, extraOffset);
+            tabStrip.onViewPagerPageChanged(position, positionOffset);
 
-            if (viewPagerPageChangeListener != null) {
+            if (viewPagerPageChangeListener != null && !dispatchEveryScroll) {
                 viewPagerPageChangeListener.onPageScrolled(position, positionOffset,
-                        positionOffsetPixels);
+                        this.pendingOffsetPixels);
             }
         }
 
         @Override
         public void onPageScrollStateChanged(int state) {
+            flushScroll();
             this.scrollState = state;
 
             if (viewPagerPageChangeListener != null) {
@@ -322,15 +573,15 @@ public class SlidingTabLayout extends HorizontalScrollView {
 
         @Override
         public void onPageSelected(int position) {
-            Log.d("aaa", "onPageSelected : " + position);
+            if (LoopTrace.ENABLED) LoopTrace.d(TAG, "onPageSelected : " + position);
+            flushScroll();
             position = LoopViewPager.toRealPosition(position, viewPager.getAdapter().getCount());
             if (scrollState == ViewPager.SCROLL_STATE_IDLE) {
-                tabStrip[1].onViewPagerPageChanged(position, 0f);
+                tabStrip.onViewPagerPageChanged(position, 0f);
                 scrollToTab(position, 0);
             }
-            for (int i = 0; i < tabStrip[1].getChildCount(); i++) {
-                tabStrip[1].getChildAt(i).setSelected(position == i);
-            }
+            selectedTab = position;
+            tabStrip.setSelectedTab(position);
             if (viewPagerPageChangeListener != null) {
                 viewPagerPageChangeListener.onPageSelected(position);
             }
@@ -340,55 +591,92 @@ public class SlidingTabLayout extends HorizontalScrollView {
     private class TabClickListener implements View.OnClickListener {
         @Override
         public void onClick(View v) {
-            for (int t = 0; t < tabStrip.length; t++) {
-                SlidingTabStrip tab = tabStrip[t];
-                for (int i = 0; i < tab.getChildCount(); i++) {
-                    if (v == tab.getChildAt(i)) {
-                        if (t == 0 && i == tab.getChildCount() - 1) {
-                            viewPager.setCurrentItem(-1);
-                        } else if (t == 2 && i == 0) {
-                            viewPager.setCurrentItem(tab.getChildCount());
-                        } else {
-                            viewPager.setCurrentItem(i);
-                        }
-                        return;
-                    }
-                }
+            TabViewHolder holder = (TabViewHolder) v.getTag();
+            int centerCopy = tabStrip.getLoopCopies() / 2;
+            int i = holder.position;
+            if (holder.copy < centerCopy && i == tabStrip.getTabCount() - 1) {
+                viewPager.setCurrentItem(-1);
+            } else if (holder.copy > centerCopy && i == 0) {
+                viewPager.setCurrentItem(tabStrip.getTabCount());
+            } else {
+                viewPager.setCurrentItem(i);
             }
         }
     }
 
-    public class InnerLayout extends LinearLayout {
-        public InnerLayout(Context context) {
-            super(context);
+    /**
+     * Per-view state kept in the tab view's tag so a recycled view can be rebound cheaply.
+     */
+    private static class TabViewHolder {
+        TextView titleView;
+        int copy;
+        int position;
+    }
+
+    private class TabViewBinder implements SlidingTabStrip.TabViewFactory {
+        private final View.OnClickListener tabClickListener = new TabClickListener();
+
+        @Override
+        public View createTabView(ViewGroup parent) {
+            if (metrics == null) {
+                return inflateTabView(parent);
+            }
+            LoopTrace.beginSection(LoopMetrics.SECTION_TAB_INFLATE);
+            long start = System.nanoTime();
+            try {
+                return inflateTabView(parent);
+            } finally {
+                metrics.record(LoopMetrics.TAB_INFLATE, System.nanoTime() - start);
+                LoopTrace.endSection();
+            }
+        }
+
+        private View inflateTabView(ViewGroup parent) {
+            View tabView = null;
+            TextView tabTitleView = null;
+
+            if (tabViewLayoutId != 0) {
+                // If there is a custom tab view layout id set, try and inflate it
+                tabView = LayoutInflater.from(getContext()).inflate(tabViewLayoutId, parent, false);
+                tabTitleView = (TextView) tabView.findViewById(tabViewTextViewId);
+            }
+
+            if (tabView == null) {
+                tabView = createDefaultTabView(getContext());
+            }
+
+            if (tabTitleView == null && TextView.class.isInstance(tabView)) {
+                tabTitleView = (TextView) tabView;
+            }
+
+            TabViewHolder holder = new TabViewHolder();
+            holder.titleView = tabTitleView;
+            tabView.setTag(holder);
+            tabView.setOnClickListener(this.tabClickListener);
+            return tabView;
         }
 
         @Override
-        public void onWindowFocusChanged(boolean hasFocus) {
-            super.onWindowFocusChanged(hasFocus);
-            resizing();
+        public void bindTabView(View tabView, int copy, int position) {
+            TabViewHolder holder = (TabViewHolder) tabView.getTag();
+            holder.copy = copy;
+            holder.position = position;
+            holder.titleView.setText(tabTitles[position]);
+            tabView.setContentDescription(contentDescriptions.get(position, null));
+            tabView.setSelected(position == selectedTab);
         }
 
         @Override
-        public void onSizeChanged(int w, int h, int oldw, int oldh) {
-            super.onSizeChanged(w, h, oldw, oldh);
-            resizing();
-        }
-
-        private void resizing() {
-            if (getChildCount() == 3) {
-                View clone1 = this.getChildAt(0);
-                View origin = this.getChildAt(1);
-                View clone2 = this.getChildAt(2);
-                int width = origin.getMeasuredWidth();
-                if (width < SlidingTabLayout.this.getMeasuredWidth()) {
-                    mInnerLayout.removeView(clone1);
-                    mInnerLayout.removeView(clone2);
-                } else {
-                    clone1.setMinimumWidth(width);
-                    clone2.setMinimumWidth(width);
-                }
+        public int getTabWidth(int position) {
+            if (tabViewLayoutId != 0 || titlePrototype == null) {
+                return -1;
+            }
+            float width = titleMetrics.getWidth(displayTitles[position]);
+            if (width < 0) {
+                return -1;
             }
+            return (int) Math.ceil(width) + titlePrototype.getCompoundPaddingLeft()
+                    + titlePrototype.getCompoundPaddingRight();
         }
     }
 
@@ -406,7 +694,7 @@ public class SlidingTabLayout extends HorizontalScrollView {
 
         @Override
         public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
-            mAnimeManager.startFling(-velocityX / 50);
+            mAnimeManager.startFling(-velocityX);
             return true;
         }
 
@@ -418,22 +706,22 @@ public class SlidingTabLayout extends HorizontalScrollView {
         }
     }
 
-    private class AnimeManager {
-        private static final int INTERVAL = 50; // ms
-        private static final float ATTENUAION_RATE = 0.90F;
-        private float mDelta = 0;
-        private final Runnable mUpdateRunner = new Runnable() {
-            @Override
-            public void run() {
-                onUpdate();
-            }
-        };
-
-        public void update() {
-            Handler handler = getHandler();
-            if (handler == null) return;
-            handler.postDelayed(mUpdateRunner, INTERVAL);
-        }
+    /**
+     * Fling engine driven by {@link Choreographer} frame callbacks. The velocity decays
+     * exponentially with elapsed time rather than per update, so the fling covers the same
+     * distance in the same time at any display refresh rate.
+     */
+    private class AnimeManager implements Choreographer.FrameCallback {
+        // The fling used to advance by 1/50 of the velocity every 50ms, i.e. at 40% speed
+        private static final float FLING_VELOCITY_SCALE = 0.4F;
+        // Time constant giving the same decay as the former 0.90 per 50ms step
+        private static final float DECAY_TIME_CONSTANT_MS = 474.6F;
+        // Below 1px per 50ms the fling is finished
+        private static final float MIN_VELOCITY = 0.02F; // px/ms
+        private float mVelocity = 0; // px/ms
+        private float mRemainder = 0;
+        private long mLastFrameTimeNanos;
+        private boolean mRunning;
 
         public void startScroll(float delta) {
             stopFling();
@@ -442,29 +730,58 @@ public class SlidingTabLayout extends HorizontalScrollView {
             }
         }
 
-        public void startFling(float delta) {
-            mDelta = delta;
-            update();
+        /**
+         * @param velocity fling velocity in px per second.
+         */
+        public void startFling(float velocity) {
+            mVelocity = velocity * FLING_VELOCITY_SCALE / 1000F;
+            mRemainder = 0;
+            mLastFrameTimeNanos = System.nanoTime();
+            if (!mRunning) {
+                mRunning = true;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
         }
 
         public void stopFling() {
-            mDelta = 0.0F;
+            mVelocity = 0.0F;
+            if (mRunning) {
+                mRunning = false;
+                Choreographer.getInstance().removeFrameCallback(this);
+            }
         }
 
-        private void onUpdate() {
-            if (Math.abs(mDelta) > 1.0F) {
-                scrollBy((int) mDelta, 0);
-                mDelta = mDelta * ATTENUAION_RATE;
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mRunning = false;
+            float elapsed = Math.max(0, frameTimeNanos - mLastFrameTimeNanos) / 1000000F;
+            mLastFrameTimeNanos = frameTimeNanos;
+
+            // Integrate v(t) = v0 * e^(-t / tau) over the elapsed time
+            float decay = (float) Math.exp(-elapsed / DECAY_TIME_CONSTANT_MS);
+            float distance = mVelocity * DECAY_TIME_CONSTANT_MS * (1F - decay) + mRemainder;
+            mVelocity *= decay;
+
+            int dx = (int) distance;
+            mRemainder = distance - dx;
+            if (dx != 0) {
+                scrollBy(dx, 0);
                 loopScrollPosition();
-                update();
+            }
+            if (Math.abs(mVelocity) > MIN_VELOCITY) {
+                mRunning = true;
+                Choreographer.getInstance().postFrameCallback(this);
             } else {
-                stopFling();
+                mVelocity = 0.0F;
             }
         }
 
         private boolean loopScrollPosition() {
+            if (tabStrip.getLoopCopies() < 3) {
+                return false;
+            }
             int curX = computeHorizontalScrollOffset();
-            int unitWidth = computeHorizontalScrollRange() / 3;
+            int unitWidth = tabStrip.getContentWidth();
             if (curX > unitWidth * 1.8F) {
                 scrollTo(curX - unitWidth, 0);
                 return true;
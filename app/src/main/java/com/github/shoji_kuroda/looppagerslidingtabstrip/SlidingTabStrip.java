@@ -5,18 +5,50 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.util.TypedValue;
 import android.view.View;
-import android.widget.LinearLayout;
+import android.view.ViewGroup;
 
 /**
  * Created by shoji.kuroda on 2016/09/06.
+ * <p>
+ * The tabs are laid out once and then tiled {@link #getLoopCopies()} times side by side, so a
+ * single strip provides the wrap-around that {@link SlidingTabLayout} scrolls through. A tab
+ * "slot" is {@code copy * tabCount + position}.
+ * <p>
+ * Only the slots intersecting the visible range (plus {@link #WINDOW_MARGIN_TABS} on each side)
+ * are backed by child views. Tab views are taken from a {@link TabViewPool} and rebound as the
+ * window moves, so the number of views follows the viewport and not the tab count.
  */
-public class SlidingTabStrip extends LinearLayout {
+public class SlidingTabStrip extends ViewGroup {
 
     private static final String TAG = SlidingTabStrip.class.getSimpleName();
 
+    /**
+     * Creates and binds the views shown for each tab. Views are recycled, so
+     * {@link #bindTabView(View, int, int)} is called again every time a view is reused.
+     */
+    interface TabViewFactory {
+
+        View createTabView(ViewGroup parent);
+
+        void bindTabView(View tabView, int copy, int position);
+
+        /**
+         * @return the width of the tab at {@code position} if it is known without binding and
+         * measuring a view, or -1.
+         */
+        int getTabWidth(int position);
+    }
+
+    private static final int WINDOW_MARGIN_TABS = 1;
+    // Tabs are tiled this many times once a single run of them is as wide as the viewport
+    private static final int LOOP_COPIES = 3;
+    // Tabs on screen at a time when they are distributed evenly
+    private static final int EVEN_TABS_PER_VIEWPORT = 3;
+    private static final int VIEWPORT_UNKNOWN = -1;
+    private static final int OFFSETS_INVALID = Integer.MIN_VALUE;
+
     private static final int DEFAULT_BOTTOM_BORDER_THICKNESS_DIPS = 0;
     private static final byte DEFAULT_BOTTOM_BORDER_COLOR_ALPHA = 0x26;
     private static final int SELECTED_INDICATOR_THICKNESS_DIPS = 3;
@@ -30,9 +62,37 @@ public class SlidingTabStrip extends LinearLayout {
 
     private int mSelectedPosition;
     private float mSelectionOffset;
+    // Indicator bounds within a single run of tabs, as last drawn or invalidated
+    private boolean mHasIndicator;
+    private int mIndicatorLeft;
+    private int mIndicatorRight;
+    private int mIndicatorColor;
 
     private SlidingTabLayout.TabColorizer mCustomTabColorizer;
     private final SimpleTabColorizer mDefaultTabColorizer;
+    // Built lazily from the colorizer, dropped whenever the colors or the tab count change
+    private ColorGradientTable mIndicatorGradient;
+    private boolean mLinearIndicatorBlending;
+
+    private TabViewFactory mTabViewFactory;
+    private TabViewPool mTabViewPool;
+    private boolean mDistributeEvenly;
+    private int mTabCount;
+    private int mLoopCopies = 1;
+    private final TabWidthIndex mTabWidths = new TabWidthIndex();
+    // Large catalog mode: tabs start at an estimated width and are measured when first bound
+    private boolean mEstimateWidths;
+    private boolean[] mWidthMeasured = new boolean[0];
+    private int mScrollCorrection;
+    private boolean mWidthsChanged;
+    private int mTabHeight;
+    private int mOffsetsWidth = OFFSETS_INVALID;
+    private int mViewportWidth = VIEWPORT_UNKNOWN;
+    private final TabRegistry mActiveTabs = new TabRegistry();
+    private int mSelectedTab;
+    private int mVisibleLeft;
+    private int mVisibleRight = -1;
+    private boolean mTabLayers;
 
     public SlidingTabStrip(Context context) {
         this(context, null);
@@ -60,15 +120,466 @@ public class SlidingTabStrip extends LinearLayout {
         mSelectedIndicatorPaint = new Paint();
     }
 
+    /**
+     * Replace the tabs shown by this strip. Every active tab view is returned to the pool.
+     */
+    void setTabs(int tabCount, TabViewFactory factory, TabViewPool pool, boolean distributeEvenly) {
+        recycleAllTabs();
+        mTabCount = tabCount;
+        mTabViewFactory = factory;
+        mTabViewPool = pool;
+        mDistributeEvenly = distributeEvenly;
+        mActiveTabs.reset(tabCount, mLoopCopies);
+        mIndicatorGradient = null;
+        mTabWidths.reset(tabCount, 0);
+        mWidthMeasured = new boolean[tabCount];
+        mOffsetsWidth = OFFSETS_INVALID;
+        requestLayout();
+    }
+
+    int getTabCount() {
+        return mTabCount;
+    }
+
+    /**
+     * Apply a change of the tabs. If the count is unchanged, only tabs flagged in
+     * {@code changed} are rebound and remeasured; otherwise every bound view goes back to the
+     * pool and the visible ones are rebound from it.
+     */
+    void notifyTabsChanged(int tabCount, boolean[] changed) {
+        if (tabCount != mTabCount || mTabViewFactory == null) {
+            setTabs(tabCount, mTabViewFactory, mTabViewPool, mDistributeEvenly);
+            return;
+        }
+        boolean widthsChanged = false;
+        if (!mDistributeEvenly && mOffsetsWidth != OFFSETS_INVALID) {
+            widthsChanged = remeasureTabs(changed);
+        }
+        for (int slot = mActiveTabs.getFirst(); slot <= mActiveTabs.getLast(); slot++) {
+            int position = mActiveTabs.positionOf(slot);
+            if (changed[position]) {
+                mTabViewFactory.bindTabView(mActiveTabs.get(slot), mActiveTabs.copyOf(slot), position);
+            }
+        }
+        if (widthsChanged) {
+            requestLayout();
+        }
+        invalidate();
+    }
+
+    /**
+     * Set the width of the scroll view showing this strip. Evenly distributed tabs are sized
+     * from it, and the tabs are tiled only when a single run of them is at least this wide.
+     * The parent measures this strip with an unspecified width, so it is passed separately.
+     */
+    void setViewportWidth(int width) {
+        if (width <= 0) {
+            width = VIEWPORT_UNKNOWN;
+        }
+        if (mViewportWidth != width) {
+            mViewportWidth = width;
+            // Called from the parent's onMeasure; only make sure this strip is measured again
+            forceLayout();
+        }
+    }
+
+    /**
+     * Set how many times the tabs are repeated, while measuring.
+     */
+    private void applyLoopCopies(int copies) {
+        if (mLoopCopies != copies) {
+            mLoopCopies = copies;
+            recycleAllTabs();
+            mActiveTabs.reset(mTabCount, copies);
+        }
+    }
+
+    int getLoopCopies() {
+        return mLoopCopies;
+    }
+
+    /**
+     * @return the width of a single run of tabs.
+     */
+    int getContentWidth() {
+        return mTabWidths.getTotalWidth();
+    }
+
+    /**
+     * @return the x offset of the copy the layout keeps centred on the selected tab.
+     */
+    int getCenterCopyOffset() {
+        return mLoopCopies / 2 * getContentWidth();
+    }
+
+    int getTabLeft(int position) {
+        return mTabWidths.offsetOf(position);
+    }
+
+    int getTabRight(int position) {
+        return mTabWidths.offsetOf(position) + mTabWidths.get(position);
+    }
+
+    int getTabWidth(int position) {
+        return mTabWidths.get(position);
+    }
+
+    /**
+     * Lay out only the tabs near the visible range with their measured widths; every other tab
+     * is assumed as wide as the first one until it is bound. Startup then measures a handful of
+     * tabs rather than all of them, which matters for catalogs of hundreds of tabs.
+     */
+    void setEstimatedTabWidths(boolean estimate) {
+        if (mEstimateWidths != estimate) {
+            mEstimateWidths = estimate;
+            recycleAllTabs();
+            mOffsetsWidth = OFFSETS_INVALID;
+            requestLayout();
+        }
+    }
+
+    /**
+     * When a tab left of the visible range turns out wider or narrower than estimated, the tabs
+     * on screen move by the difference. The parent scrolls by the returned amount to keep them
+     * still.
+     *
+     * @return the accumulated scroll correction, which is reset.
+     */
+    int consumeScrollCorrection() {
+        int correction = mScrollCorrection;
+        mScrollCorrection = 0;
+        return correction;
+    }
+
+    /**
+     * Set the horizontal range, in this strip's coordinates, that is currently on screen.
+     * Tabs leaving the range are recycled and tabs entering it are bound.
+     */
+    void setVisibleRange(int left, int right) {
+        mVisibleLeft = left;
+        mVisibleRight = right;
+        updateWindow();
+    }
+
+    /**
+     * Render each bound tab view into its own hardware layer. The labels are then re-rendered only
+     * when a tab view itself invalidates, e.g. on a new title, selection or size, and a frame that
+     * only moves the indicator redraws the strip as layer blits plus the indicator rect.
+     */
+    void setTabLayersEnabled(boolean enabled) {
+        if (mTabLayers != enabled) {
+            mTabLayers = enabled;
+            for (int slot = mActiveTabs.getFirst(); slot <= mActiveTabs.getLast(); slot++) {
+                applyTabLayer(mActiveTabs.get(slot));
+            }
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        // Hardware acceleration is only known once attached
+        if (mTabLayers) {
+            for (int slot = mActiveTabs.getFirst(); slot <= mActiveTabs.getLast(); slot++) {
+                applyTabLayer(mActiveTabs.get(slot));
+            }
+        }
+    }
+
+    private void applyTabLayer(View tabView) {
+        // Without hardware acceleration a layer would be a software bitmap, which costs more
+        // than it saves
+        int layerType = mTabLayers && isHardwareAccelerated() ? LAYER_TYPE_HARDWARE : LAYER_TYPE_NONE;
+        if (tabView.getLayerType() != layerType) {
+            tabView.setLayerType(layerType, null);
+        }
+    }
+
+    /**
+     * Move the selected state from the previously selected tab to {@code position} in every
+     * copy. Views bound later pick the state up from the {@link TabViewFactory}.
+     */
+    void setSelectedTab(int position) {
+        if (position == mSelectedTab) {
+            return;
+        }
+        for (int copy = 0; copy < mLoopCopies; copy++) {
+            View previous = mActiveTabs.get(copy, mSelectedTab);
+            if (previous != null) {
+                previous.setSelected(false);
+            }
+            View selected = mActiveTabs.get(copy, position);
+            if (selected != null) {
+                selected.setSelected(true);
+            }
+        }
+        mSelectedTab = position;
+    }
+
+    /**
+     * Measured as {@link #getLoopCopies()} runs of tabs, whatever width the parent offers; the
+     * tab widths only depend on the {@link #setViewportWidth(int) viewport width}.
+     */
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-        int widthSize = MeasureSpec.getSize(widthMeasureSpec);
+        if (mOffsetsWidth != mViewportWidth) {
+            computeTabOffsets(mViewportWidth == VIEWPORT_UNKNOWN
+                    ? -1 : mViewportWidth / EVEN_TABS_PER_VIEWPORT * mTabCount);
+            mOffsetsWidth = mViewportWidth;
+        }
+        // Tabs narrower than the screen can't scroll, so there is nothing to wrap around
+        final int contentWidth = getContentWidth();
+        applyLoopCopies(contentWidth > 0 && contentWidth >= mViewportWidth ? LOOP_COPIES : 1);
+        setMeasuredDimension(resolveSize(contentWidth * mLoopCopies, widthMeasureSpec),
+                resolveSize(mTabHeight, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        for (int slot = mActiveTabs.getFirst(); slot <= mActiveTabs.getLast(); slot++) {
+            layoutTab(mActiveTabs.get(slot), slot);
+        }
+        updateWindow();
+    }
+
+    @Override
+    protected LayoutParams generateDefaultLayoutParams() {
+        return new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.MATCH_PARENT);
+    }
+
+    private void computeTabOffsets(int width) {
+        mTabHeight = 0;
+        if (mTabCount == 0 || mTabViewFactory == null) {
+            return;
+        }
+        final int unspecified = MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
+        View scrap = obtainTabView(0, 0);
+        if (mDistributeEvenly && width >= 0) {
+            scrap.measure(MeasureSpec.makeMeasureSpec(width / mTabCount, MeasureSpec.EXACTLY), unspecified);
+            mTabHeight = scrap.getMeasuredHeight();
+            mTabWidths.reset(mTabCount, 0);
+            for (int i = 0; i < mTabCount; i++) {
+                mTabWidths.set(i, (int) ((long) width * (i + 1) / mTabCount - (long) width * i / mTabCount));
+                mWidthMeasured[i] = true;
+            }
+        } else {
+            // The first tab is always measured so the strip knows the tab height
+            scrap.measure(unspecified, unspecified);
+            mTabHeight = scrap.getMeasuredHeight();
+            mTabWidths.reset(mTabCount, mEstimateWidths ? scrap.getMeasuredWidth() : 0);
+            mTabWidths.set(0, scrap.getMeasuredWidth());
+            mWidthMeasured[0] = true;
+            for (int i = 1; i < mTabCount; i++) {
+                mWidthMeasured[i] = !mEstimateWidths;
+                if (mEstimateWidths) {
+                    continue;
+                }
+                int tabWidth = mTabViewFactory.getTabWidth(i);
+                if (tabWidth < 0) {
+                    mTabViewFactory.bindTabView(scrap, 0, i);
+                    scrap.measure(unspecified, unspecified);
+                    tabWidth = scrap.getMeasuredWidth();
+                    mTabHeight = Math.max(mTabHeight, scrap.getMeasuredHeight());
+                }
+                mTabWidths.set(i, tabWidth);
+            }
+        }
+        mTabViewPool.release(scrap);
+    }
+
+    /**
+     * Measure the flagged tabs again. With estimated widths, flagged tabs that are not bound are
+     * only marked for measuring once they are.
+     *
+     * @return true if any width changed.
+     */
+    private boolean remeasureTabs(boolean[] changed) {
+        final int unspecified = MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
+        boolean widthsChanged = false;
+        View scrap = null;
+        for (int i = 0; i < mTabCount; i++) {
+            if (!changed[i]) {
+                continue;
+            }
+            if (mEstimateWidths && !isBound(i)) {
+                mWidthMeasured[i] = false;
+                continue;
+            }
+            int width = mTabViewFactory.getTabWidth(i);
+            if (width < 0) {
+                if (scrap == null) {
+                    scrap = obtainTabView(0, i);
+                } else {
+                    mTabViewFactory.bindTabView(scrap, 0, i);
+                }
+                scrap.measure(unspecified, unspecified);
+                width = scrap.getMeasuredWidth();
+                mTabHeight = Math.max(mTabHeight, scrap.getMeasuredHeight());
+            }
+            mWidthMeasured[i] = true;
+            widthsChanged |= mTabWidths.set(i, width) != 0;
+        }
+        if (scrap != null) {
+            mTabViewPool.release(scrap);
+        }
+        return widthsChanged;
+    }
 
-        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+    private boolean isBound(int position) {
+        for (int copy = 0; copy < mLoopCopies; copy++) {
+            if (mActiveTabs.get(copy, position) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private View obtainTabView(int copy, int position) {
+        View tabView = mTabViewPool.acquire();
+        if (tabView == null) {
+            tabView = mTabViewFactory.createTabView(this);
+        }
+        mTabViewFactory.bindTabView(tabView, copy, position);
+        return tabView;
+    }
+
+    private void layoutTab(View tabView, int slot) {
+        final int height = getHeight();
+        final int position = slot % mTabCount;
+        final int left = slot / mTabCount * getContentWidth() + getTabLeft(position);
+        final int width = getTabWidth(position);
+        tabView.measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY));
+        tabView.layout(left, 0, left + width, height);
+    }
+
+    private void updateWindow() {
+        boolean changed = false;
+        boolean widthsChanged;
+        do {
+            final int anchorSlot = isWindowValid() ? slotAt(mVisibleLeft) : -1;
+            final int anchorLeft = anchorSlot >= 0 ? getSlotLeft(anchorSlot) : 0;
+            mWidthsChanged = false;
+            changed |= bindWindow();
+            widthsChanged = mWidthsChanged;
+            if (widthsChanged) {
+                // Tabs measured for the first time moved the others; keep the tab at the left
+                // edge of the screen where it was and bind whatever the new widths expose
+                if (anchorSlot >= 0) {
+                    int correction = getSlotLeft(anchorSlot) - anchorLeft;
+                    mVisibleLeft += correction;
+                    mVisibleRight += correction;
+                    mScrollCorrection += correction;
+                }
+                for (int slot = mActiveTabs.getFirst(); slot <= mActiveTabs.getLast(); slot++) {
+                    layoutTab(mActiveTabs.get(slot), slot);
+                }
+            }
+        } while (widthsChanged);
+        if (changed) {
+            invalidate();
+        }
+    }
+
+    private boolean isWindowValid() {
+        final int contentWidth = getContentWidth();
+        return mTabCount > 0 && mTabViewFactory != null && mOffsetsWidth != OFFSETS_INVALID && contentWidth > 0
+                && mVisibleRight > 0 && mVisibleLeft < contentWidth * mLoopCopies;
+    }
+
+    /**
+     * Recycle the tabs that left the visible range and bind the ones that entered it.
+     *
+     * @return true if any tab was recycled or bound.
+     */
+    private boolean bindWindow() {
+        int first = 0;
+        int last = -1;
+        if (isWindowValid()) {
+            first = Math.max(0, slotAt(mVisibleLeft) - WINDOW_MARGIN_TABS);
+            last = Math.min(mTabCount * mLoopCopies - 1, slotAt(mVisibleRight - 1) + WINDOW_MARGIN_TABS);
+        }
+
+        boolean changed = false;
+        while (!mActiveTabs.isEmpty() && (mActiveTabs.getFirst() < first || mActiveTabs.getFirst() > last)) {
+            recycleTab(mActiveTabs.removeFirst());
+            changed = true;
+        }
+        while (!mActiveTabs.isEmpty() && mActiveTabs.getLast() > last) {
+            recycleTab(mActiveTabs.removeLast());
+            changed = true;
+        }
+        if (first <= last) {
+            if (mActiveTabs.isEmpty()) {
+                bindSlot(first);
+                changed = true;
+            }
+            for (int slot = mActiveTabs.getFirst() - 1; slot >= first; slot--) {
+                bindSlot(slot);
+                changed = true;
+            }
+            for (int slot = mActiveTabs.getLast() + 1; slot <= last; slot++) {
+                bindSlot(slot);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private void bindSlot(int slot) {
+        final int position = mActiveTabs.positionOf(slot);
+        View tabView = obtainTabView(mActiveTabs.copyOf(slot), position);
+        applyTabLayer(tabView);
+        LayoutParams lp = tabView.getLayoutParams();
+        addViewInLayout(tabView, -1, lp != null ? lp : generateDefaultLayoutParams(), true);
+        mActiveTabs.put(slot, tabView);
+        if (!mWidthMeasured[position]) {
+            int width = mTabViewFactory.getTabWidth(position);
+            if (width < 0) {
+                final int unspecified = MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
+                tabView.measure(unspecified, unspecified);
+                width = tabView.getMeasuredWidth();
+            }
+            mWidthMeasured[position] = true;
+            mWidthsChanged |= mTabWidths.set(position, width) != 0;
+        }
+        layoutTab(tabView, slot);
+    }
+
+    private void recycleTab(View tabView) {
+        removeViewInLayout(tabView);
+        mTabViewPool.release(tabView);
+    }
+
+    private void recycleAllTabs() {
+        while (!mActiveTabs.isEmpty()) {
+            recycleTab(mActiveTabs.removeLast());
+        }
+    }
+
+    /**
+     * @return the slot containing {@code x}, clamped to the strip.
+     */
+    private int slotAt(int x) {
+        final int contentWidth = getContentWidth();
+        final int copy = Math.max(0, Math.min(mLoopCopies - 1, x / contentWidth));
+        return copy * mTabCount + indexAt(x - copy * contentWidth);
+    }
+
+    /**
+     * @return the tab containing {@code x}, clamped to the valid tab range.
+     */
+    private int indexAt(int x) {
+        return mTabWidths.indexOf(x);
+    }
+
+    private int getSlotLeft(int slot) {
+        return mActiveTabs.copyOf(slot) * getContentWidth() + getTabLeft(mActiveTabs.positionOf(slot));
     }
 
     void setCustomTabColorizer(SlidingTabLayout.TabColorizer customTabColorizer) {
         mCustomTabColorizer = customTabColorizer;
+        mIndicatorGradient = null;
         invalidate();
     }
 
@@ -76,66 +587,134 @@ public class SlidingTabStrip extends LinearLayout {
         // Make sure that the custom colorizer is removed
         mCustomTabColorizer = null;
         mDefaultTabColorizer.setIndicatorColors(colors);
+        mIndicatorGradient = null;
+        invalidate();
+    }
+
+    /**
+     * Blend the indicator colors in linear light, honouring their alpha, instead of mixing the
+     * opaque sRGB channels.
+     */
+    void setLinearIndicatorBlending(boolean linear) {
+        if (mLinearIndicatorBlending != linear) {
+            mLinearIndicatorBlending = linear;
+            mIndicatorGradient = null;
+            invalidate();
+        }
+    }
+
+    /**
+     * Drop the precomputed indicator colors, e.g. when a custom colorizer starts returning
+     * different colors.
+     */
+    void invalidateIndicatorColors() {
+        mIndicatorGradient = null;
         invalidate();
     }
 
+    private ColorGradientTable getIndicatorGradient(int tabCount) {
+        if (mIndicatorGradient == null || mIndicatorGradient.getCount() != tabCount) {
+            final SlidingTabLayout.TabColorizer tabColorizer = mCustomTabColorizer != null
+                    ? mCustomTabColorizer
+                    : mDefaultTabColorizer;
+            int[] colors = new int[tabCount];
+            for (int i = 0; i < tabCount; i++) {
+                colors[i] = tabColorizer.getIndicatorColor(i);
+            }
+            mIndicatorGradient = new ColorGradientTable(colors, mLinearIndicatorBlending);
+        }
+        return mIndicatorGradient;
+    }
+
     void onViewPagerPageChanged(int position, float positionOffset) {
         mSelectedPosition = position;
         mSelectionOffset = positionOffset;
-        Log.d(TAG, "mSelectionOffset : " + mSelectionOffset);
-        Log.d(TAG, "mSelectedPosition : " + mSelectedPosition);
-        invalidate();
+        if (LoopTrace.ENABLED) {
+            LoopTrace.d(TAG, "mSelectedPosition : " + mSelectedPosition + " / " + mSelectionOffset);
+        }
+        final boolean hadIndicator = mHasIndicator;
+        final int oldLeft = mIndicatorLeft;
+        final int oldRight = mIndicatorRight;
+        updateIndicator();
+        if (hadIndicator && mHasIndicator) {
+            // Only the strip between the old and the new indicator has to be redrawn
+            invalidateIndicator(Math.min(oldLeft, mIndicatorLeft), Math.max(oldRight, mIndicatorRight));
+        } else {
+            invalidate();
+        }
     }
 
-    @Override
-    protected void onDraw(Canvas canvas) {
+    /**
+     * Invalidate the indicator band from {@code left} to {@code right} in every copy on screen,
+     * including the copy before the first one whose indicator reaches across the seam. Copies off
+     * screen are redrawn with the current state when scrolling brings them into view.
+     */
+    private void invalidateIndicator(int left, int right) {
         final int height = getHeight();
-        final int childCount = getChildCount();
-        final SlidingTabLayout.TabColorizer tabColorizer = mCustomTabColorizer != null
-                ? mCustomTabColorizer
-                : mDefaultTabColorizer;
-
-        // Thick colored underline below the current selection
-        if (childCount > 0) {
-            View selectedTitle = getChildAt(mSelectedPosition);
-            int left = selectedTitle.getLeft();
-            int right = selectedTitle.getRight();
-            int color = tabColorizer.getIndicatorColor(mSelectedPosition);
-
-            if (mSelectedPosition < (getChildCount() - 1)) {
-                int nextColor = tabColorizer.getIndicatorColor(mSelectedPosition + 1);
-                if (color != nextColor) {
-                    color = blendColors(nextColor, color, mSelectionOffset);
-                }
+        final int contentWidth = getContentWidth();
+        for (int copy = -1; copy < mLoopCopies; copy++) {
+            int offset = copy * contentWidth;
+            if (isOnScreen(left + offset, right + offset)) {
+                invalidate(left + offset, height - mSelectedIndicatorThickness, right + offset, height);
+            }
+        }
+    }
 
-                // Draw the selection partway between the tabs
-                View nextTitle = getChildAt(mSelectedPosition + 1);
-                left = (int) (mSelectionOffset * nextTitle.getLeft() +
-                        (1.0f - mSelectionOffset) * left);
-                right = (int) (mSelectionOffset * nextTitle.getRight() +
-                        (1.0f - mSelectionOffset) * right);
+    /**
+     * @return whether the range from {@code left} to {@code right} intersects the visible range,
+     * or true if no visible range was set.
+     */
+    private boolean isOnScreen(int left, int right) {
+        return mVisibleRight <= mVisibleLeft || (right > mVisibleLeft && left < mVisibleRight);
+    }
 
-                Log.d(TAG, "getWidth : " + nextTitle.getWidth());
-                Log.d(TAG, "draw : " + left + " <-> " + right + " / " + mSelectedIndicatorThickness);
-                Log.d(TAG, "draw next : " + nextTitle.getLeft() + " <-> " + nextTitle.getRight());
-                mSelectedIndicatorPaint.setColor(color);
-                canvas.drawRect(left, height - mSelectedIndicatorThickness, right,
-                        height, mSelectedIndicatorPaint);
-            } else {
-                left = (int) (mSelectionOffset * right +
-                        (1.0f - mSelectionOffset) * left);
+    /**
+     * Compute the bounds and color of the indicator for the current selection and offset.
+     */
+    private void updateIndicator() {
+        final int tabCount = mOffsetsWidth != OFFSETS_INVALID ? mTabCount : 0;
+        mHasIndicator = tabCount > 0 && mSelectedPosition < tabCount;
+        if (!mHasIndicator) {
+            return;
+        }
+        final int contentWidth = getContentWidth();
+        int left = getTabLeft(mSelectedPosition);
+        int right = getTabRight(mSelectedPosition);
+
+        // The next tab after the last one is the first tab of the following copy, so the
+        // indicator may extend past contentWidth. Tiling it when drawing takes care of the seam.
+        int nextPosition = (mSelectedPosition + 1) % tabCount;
+        int nextLeft = getTabLeft(nextPosition);
+        int nextRight = getTabRight(nextPosition);
+        if (nextPosition == 0) {
+            nextLeft += contentWidth;
+            nextRight += contentWidth;
+        }
 
-                mSelectedIndicatorPaint.setColor(color);
-                canvas.drawRect(left, height - mSelectedIndicatorThickness, right,
-                        height, mSelectedIndicatorPaint);
+        // Draw the selection partway between the tabs
+        mIndicatorLeft = LoopMath.lerp(left, nextLeft, mSelectionOffset);
+        mIndicatorRight = LoopMath.lerp(right, nextRight, mSelectionOffset);
+        mIndicatorColor = getIndicatorGradient(tabCount).colorAt(mSelectedPosition, mSelectionOffset);
+    }
 
-                View nextTitle = getChildAt(0);
-                right = (int) (mSelectionOffset * nextTitle.getRight() +
-                        (1.0f - mSelectionOffset) * 0);
+    @Override
+    protected void onDraw(Canvas canvas) {
+        final int height = getHeight();
 
-                canvas.drawRect(0, height - mSelectedIndicatorThickness, right,
-                        height, mSelectedIndicatorPaint);
-                Log.w(TAG, "draw : " + left + " <-> " + right + " / " + mSelectedIndicatorThickness);
+        // Thick colored underline below the current selection
+        updateIndicator();
+        if (mHasIndicator) {
+            final int contentWidth = getContentWidth();
+            final int left = mIndicatorLeft;
+            final int right = mIndicatorRight;
+            if (LoopTrace.ENABLED) LoopTrace.d(TAG, "draw : " + left + " <-> " + right);
+            mSelectedIndicatorPaint.setColor(mIndicatorColor);
+            for (int copy = -1; copy < mLoopCopies; copy++) {
+                int offset = copy * contentWidth;
+                if (isOnScreen(left + offset, right + offset)) {
+                    canvas.drawRect(left + offset, height - mSelectedIndicatorThickness,
+                            right + offset, height, mSelectedIndicatorPaint);
+                }
             }
         }
 
@@ -150,26 +729,12 @@ public class SlidingTabStrip extends LinearLayout {
         return Color.argb(alpha, Color.red(color), Color.green(color), Color.blue(color));
     }
 
-    /**
-     * Blend {@code color1} and {@code color2} using the given ratio.
-     *
-     * @param ratio of which to blend. 1.0 will return {@code color1}, 0.5 will give an even blend,
-     *              0.0 will return {@code color2}.
-     */
-    private static int blendColors(int color1, int color2, float ratio) {
-        final float inverseRation = 1f - ratio;
-        float r = (Color.red(color1) * ratio) + (Color.red(color2) * inverseRation);
-        float g = (Color.green(color1) * ratio) + (Color.green(color2) * inverseRation);
-        float b = (Color.blue(color1) * ratio) + (Color.blue(color2) * inverseRation);
-        return Color.rgb((int) r, (int) g, (int) b);
-    }
-
     private static class SimpleTabColorizer implements SlidingTabLayout.TabColorizer {
         private int[] mIndicatorColors;
 
         @Override
         public final int getIndicatorColor(int position) {
-            return mIndicatorColors[position % mIndicatorColors.length];
+            return LoopMath.indicatorColor(mIndicatorColors, position);
         }
 
         void setIndicatorColors(int... colors) {
@@ -0,0 +1,104 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+import android.view.View;
+
+/**
+ * Index of the tab views bound in a {@link SlidingTabStrip}, addressed by slot
+ * ({@code copy * tabCount + position}). The bound slots always form one contiguous window, so
+ * lookups are a single array access and iteration only touches bound slots.
+ */
+class TabRegistry {
+
+    private View[] mViews = new View[0];
+    private int mTabCount;
+    private int mFirst;
+    private int mLast = -1;
+
+    /**
+     * Resize for {@code tabCount} tabs repeated {@code copies} times. Must only be called when
+     * no slot is bound.
+     */
+    void reset(int tabCount, int copies) {
+        int slots = tabCount * copies;
+        if (mViews.length < slots) {
+            mViews = new View[slots];
+        }
+        mTabCount = tabCount;
+        mFirst = 0;
+        mLast = -1;
+    }
+
+    /**
+     * @return the view bound to {@code slot}, or {@code null} if that slot is off the window.
+     */
+    View get(int slot) {
+        return slot >= mFirst && slot <= mLast ? mViews[slot] : null;
+    }
+
+    /**
+     * @return the view showing {@code position} in {@code copy}, or {@code null}.
+     */
+    View get(int copy, int position) {
+        return get(copy * mTabCount + position);
+    }
+
+    int getFirst() {
+        return mFirst;
+    }
+
+    int getLast() {
+        return mLast;
+    }
+
+    boolean isEmpty() {
+        return mLast < mFirst;
+    }
+
+    /**
+     * Bind {@code tabView} to {@code slot}, which must be adjacent to the current window.
+     */
+    void put(int slot, View tabView) {
+        if (isEmpty()) {
+            mFirst = slot;
+            mLast = slot;
+        } else if (slot == mFirst - 1) {
+            mFirst = slot;
+        } else if (slot == mLast + 1) {
+            mLast = slot;
+        } else {
+            throw new IllegalArgumentException("Slot " + slot + " is not adjacent to "
+                    + mFirst + ".." + mLast);
+        }
+        mViews[slot] = tabView;
+    }
+
+    /**
+     * Unbind the first slot of the window.
+     *
+     * @return the view that was bound to it.
+     */
+    View removeFirst() {
+        View tabView = mViews[mFirst];
+        mViews[mFirst++] = null;
+        return tabView;
+    }
+
+    /**
+     * Unbind the last slot of the window.
+     *
+     * @return the view that was bound to it.
+     */
+    View removeLast() {
+        View tabView = mViews[mLast];
+        mViews[mLast--] = null;
+        return tabView;
+    }
+
+    int copyOf(int slot) {
+        return slot / mTabCount;
+    }
+
+    int positionOf(int slot) {
+        return slot % mTabCount;
+    }
+}
@@ -0,0 +1,122 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+import android.graphics.Typeface;
+import android.text.Layout;
+import android.text.Spanned;
+import android.text.TextPaint;
+import android.util.LruCache;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Measures tab titles ahead of time on a background executor, so a {@link SlidingTabStrip} can lay
+ * out its tabs without binding and measuring a view per title on the main thread.
+ * <p>
+ * Widths are cached by title, text size and typeface, and the cache is shared by every instance
+ * so titles measured for one screen are reused by the next. A width asked for before the
+ * background pass got to it is measured on the spot rather than waited for.
+ */
+class TabTitleMetrics {
+
+    private static final int MAX_CACHED_TITLES = 512;
+
+    private static final LruCache<Key, Float> sWidths = new LruCache<>(MAX_CACHED_TITLES);
+
+    private final Executor mExecutor;
+    private TextPaint mPaint;
+
+    TabTitleMetrics(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Set the paint the titles are drawn with. A copy is kept, so later changes to
+     * {@code paint} are not picked up.
+     */
+    void setPaint(TextPaint paint) {
+        mPaint = new TextPaint(paint);
+    }
+
+    /**
+     * Measure {@code titles} on the executor. Titles already cached or carrying spans are skipped.
+     */
+    void precompute(CharSequence[] titles) {
+        if (mPaint == null) {
+            return;
+        }
+        // The worker gets its own paint and immutable copies of the titles
+        final TextPaint paint = new TextPaint(mPaint);
+        final String[] texts = new String[titles.length];
+        for (int i = 0; i < titles.length; i++) {
+            if (isMeasurable(titles[i])) {
+                texts[i] = titles[i].toString();
+            }
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (String text : texts) {
+                    if (text != null) {
+                        Key key = new Key(text, paint.getTextSize(), paint.getTypeface());
+                        if (sWidths.get(key) == null) {
+                            sWidths.put(key, Layout.getDesiredWidth(text, paint));
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the width of {@code title} drawn on a single line, measured now if it was not
+     * precomputed yet, or -1 if it can't be measured without a view.
+     */
+    float getWidth(CharSequence title) {
+        if (mPaint == null || !isMeasurable(title)) {
+            return -1;
+        }
+        String text = title.toString();
+        Key key = new Key(text, mPaint.getTextSize(), mPaint.getTypeface());
+        Float width = sWidths.get(key);
+        if (width == null) {
+            width = Layout.getDesiredWidth(text, mPaint);
+            sWidths.put(key, width);
+        }
+        return width;
+    }
+
+    private static boolean isMeasurable(CharSequence title) {
+        // Spans may change the metrics, so styled titles are left to the view
+        return title != null && !(title instanceof Spanned);
+    }
+
+    private static final class Key {
+        final String text;
+        final float textSize;
+        final Typeface typeface;
+
+        Key(String text, float textSize, Typeface typeface) {
+            this.text = text;
+            this.textSize = textSize;
+            this.typeface = typeface;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return text.equals(other.text) && textSize == other.textSize
+                    && (typeface == null ? other.typeface == null : typeface.equals(other.typeface));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = text.hashCode();
+            result = 31 * result + Float.floatToIntBits(textSize);
+            result = 31 * result + (typeface != null ? typeface.hashCode() : 0);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+import android.view.View;
+
+import java.util.ArrayList;
+
+/**
+ * Scrap heap of tab views that scrolled out of a {@link SlidingTabStrip}'s window, so a view
+ * leaving one copy of the tabs can be rebound for the next tab entering another.
+ */
+class TabViewPool {
+
+    private final ArrayList<View> mScrapViews = new ArrayList<>();
+
+    /**
+     * @return a detached tab view, or {@code null} if the pool is empty.
+     */
+    View acquire() {
+        final int size = mScrapViews.size();
+        return size == 0 ? null : mScrapViews.remove(size - 1);
+    }
+
+    void release(View tabView) {
+        mScrapViews.add(tabView);
+    }
+
+    void clear() {
+        mScrapViews.clear();
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+/**
+ * Widths of a run of tabs in a Fenwick tree, so the offset of a tab, the tab under an x
+ * coordinate and a change of one tab's width all cost O(log n) however many tabs there are.
+ * <p>
+ * Kept free of Android dependencies like {@link LoopMath}.
+ */
+final class TabWidthIndex {
+
+    private int[] mWidths = new int[0];
+    // 1-based; mTree[i] holds the sum of the widths of tabs (i - lowbit(i), i]
+    private int[] mTree = new int[1];
+    private int mCount;
+    private int mTotal;
+
+    /**
+     * Size the index for {@code count} tabs, all {@code width} wide.
+     */
+    void reset(int count, int width) {
+        if (mWidths.length < count) {
+            mWidths = new int[count];
+            mTree = new int[count + 1];
+        }
+        mCount = count;
+        mTotal = count * width;
+        for (int i = 0; i < count; i++) {
+            mWidths[i] = width;
+            mTree[i + 1] = width;
+        }
+        // Build in O(n) by pushing every node into its parent
+        for (int i = 1; i <= count; i++) {
+            int parent = i + (i & -i);
+            if (parent <= count) {
+                mTree[parent] += mTree[i];
+            }
+        }
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    int get(int position) {
+        return mWidths[position];
+    }
+
+    /**
+     * Change the width of the tab at {@code position}.
+     *
+     * @return the change in width.
+     */
+    int set(int position, int width) {
+        final int delta = width - mWidths[position];
+        if (delta != 0) {
+            mWidths[position] = width;
+            mTotal += delta;
+            for (int i = position + 1; i <= mCount; i += i & -i) {
+                mTree[i] += delta;
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * @return the left edge of the tab at {@code position}, i.e. the total width of the tabs
+     * before it. {@code position} may be the tab count, giving the total width.
+     */
+    int offsetOf(int position) {
+        int sum = 0;
+        for (int i = position; i > 0; i -= i & -i) {
+            sum += mTree[i];
+        }
+        return sum;
+    }
+
+    int getTotalWidth() {
+        return mTotal;
+    }
+
+    /**
+     * Find the tab containing {@code x}.
+     *
+     * @return the tab index, clamped to {@code [0, count)}.
+     */
+    int indexOf(int x) {
+        int position = 0;
+        int remaining = x;
+        for (int step = Integer.highestOneBit(Math.max(mCount, 1)); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next <= mCount && mTree[next] <= remaining) {
+                position = next;
+                remaining -= mTree[next];
+            }
+        }
+        return Math.min(position, Math.max(mCount - 1, 0));
+    }
+}
@@ -0,0 +1,32 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ColorGradientTableTest {
+
+    private static final int TRANSLUCENT = 0x8033B5E5;
+
+    @Test
+    public void singleTranslucentColorKeepsItsAlpha() throws Exception {
+        ColorGradientTable table = new ColorGradientTable(new int[]{TRANSLUCENT, TRANSLUCENT}, false);
+        assertEquals(TRANSLUCENT, table.colorAt(0, 0));
+        assertEquals(TRANSLUCENT, table.colorAt(0, 0.5f));
+        assertEquals(TRANSLUCENT, table.colorAt(1, 1));
+    }
+
+    @Test
+    public void linearBlendingKeepsAlphaToo() throws Exception {
+        ColorGradientTable table = new ColorGradientTable(new int[]{TRANSLUCENT}, true);
+        assertEquals(TRANSLUCENT, table.colorAt(0, 0.5f));
+    }
+
+    @Test
+    public void rampRunsFromOneColorToTheNext() throws Exception {
+        ColorGradientTable table = new ColorGradientTable(new int[]{0xFF000000, 0xFFFFFFFF}, false);
+        assertEquals(0xFF000000, table.colorAt(0, 0));
+        assertEquals(0xFFFFFFFF, table.colorAt(0, 1));
+        assertEquals(0xFF000000, table.colorAt(1, 1));
+    }
+}
@@ -0,0 +1,413 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.support.v4.view.PagerAdapter;
+import android.support.v4.view.ViewPager;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import org.robolectric.Robolectric;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a {@link SlidingTabLayout} and a {@link LoopViewPager} headlessly, one simulated frame at
+ * a time, and counts the measure, layout, draw and invalidate passes and the inner adapter's
+ * page churn while a scripted scenario runs.
+ */
+class FrameCostHarness {
+
+    static final String BASELINE_RESOURCE = "frame_cost_baseline.properties";
+
+    private static final long FRAME_MILLIS = 16;
+    private static final int MAX_SETTLE_FRAMES = 240;
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 800;
+    private static final int TAB_HEIGHT = 48;
+
+    /**
+     * Counters of the scenario currently running. Static because {@link SlidingTabLayout} creates
+     * its strip from its constructor, before the counting subclass's own fields exist.
+     */
+    private static final Map<String, Integer> sCounts = new TreeMap<>();
+    private static boolean sCounting = true;
+
+    private final LinearLayout root;
+    final SlidingTabLayout tabs;
+    final CountingStrip strip;
+    final CountingPager pager;
+    final CountingAdapter adapter;
+    private final Canvas canvas =
+            new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+
+    FrameCostHarness(int pageCount) {
+        sCounting = true;
+        Activity activity = Robolectric.setupActivity(Activity.class);
+        root = new LinearLayout(activity);
+        root.setOrientation(LinearLayout.VERTICAL);
+        CountingTabLayout tabLayout = new CountingTabLayout(activity);
+        tabs = tabLayout;
+        strip = tabLayout.strip;
+        pager = new CountingPager(activity);
+        adapter = new CountingAdapter(pageCount);
+        root.addView(tabs, new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, TAB_HEIGHT));
+        root.addView(pager, new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, 0, 1));
+        activity.setContentView(root);
+
+        pager.setAdapter(adapter);
+        tabs.setViewPager(pager);
+        // 初期表示のコストは計測しない
+        settle();
+        sCounts.clear();
+    }
+
+    static void count(String key) {
+        if (!sCounting) {
+            return;
+        }
+        Integer value = sCounts.get(key);
+        sCounts.put(key, value == null ? 1 : value + 1);
+    }
+
+    /**
+     * Stop or resume counting, e.g. while allocations are measured; counting allocates.
+     */
+    static void setCounting(boolean counting) {
+        sCounting = counting;
+    }
+
+    Map<String, Integer> counts() {
+        return new TreeMap<>(sCounts);
+    }
+
+    /**
+     * Runs one frame: pending messages and frame callbacks, then layout and draw if anything asked
+     * for them.
+     *
+     * @return whether the frame had to lay out or draw.
+     */
+    boolean frame() {
+        ShadowLooper.idleMainLooper(FRAME_MILLIS, TimeUnit.MILLISECONDS);
+        boolean layout = root.isLayoutRequested();
+        if (layout) {
+            count("frames.layout");
+            root.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+            root.layout(0, 0, WIDTH, HEIGHT);
+        }
+        boolean draw = root.isDirty();
+        if (draw) {
+            count("frames.draw");
+            root.draw(canvas);
+        }
+        return layout || draw;
+    }
+
+    /**
+     * Runs frames until the pager is idle and a frame goes by without layout or draw.
+     */
+    void settle() {
+        for (int i = 0; i < MAX_SETTLE_FRAMES; i++) {
+            if (!frame() && pager.scrollState == ViewPager.SCROLL_STATE_IDLE) {
+                return;
+            }
+        }
+        throw new IllegalStateException("Still busy after " + MAX_SETTLE_FRAMES + " frames");
+    }
+
+    /**
+     * Drags the pager by {@code pages} page widths over {@code frames} frames and lets it settle.
+     * Positive values swipe towards the previous page.
+     */
+    void swipePager(float pages, int frames) {
+        pager.beginFakeDrag();
+        float step = pages * pager.getWidth() / frames;
+        for (int i = 0; i < frames; i++) {
+            pager.fakeDragBy(step);
+            frame();
+        }
+        pager.endFakeDrag();
+        settle();
+    }
+
+    /**
+     * Flings the tab strip with a quick touch gesture of {@code dx} pixels and lets the fling run
+     * out.
+     */
+    void flingTabs(int dx, int frames) {
+        long downTime = SystemClock.uptimeMillis();
+        float y = TAB_HEIGHT / 2;
+        float x = dx < 0 ? WIDTH - 1 : 1;
+        tabs.dispatchTouchEvent(MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, x, y, 0));
+        for (int i = 1; i <= frames; i++) {
+            frame();
+            x += (float) dx / frames;
+            tabs.dispatchTouchEvent(MotionEvent.obtain(downTime, SystemClock.uptimeMillis(),
+                    MotionEvent.ACTION_MOVE, x, y, 0));
+        }
+        tabs.dispatchTouchEvent(MotionEvent.obtain(downTime, SystemClock.uptimeMillis(),
+                MotionEvent.ACTION_UP, x, y, 0));
+        settle();
+    }
+
+    /**
+     * Clicks the first visible tab view showing {@code position} and lets the pager settle.
+     */
+    void clickTab(int position) {
+        Rect visible = new Rect(tabs.getScrollX(), 0, tabs.getScrollX() + tabs.getWidth(), TAB_HEIGHT);
+        for (int i = 0; i < strip.getChildCount(); i++) {
+            View tabView = strip.getChildAt(i);
+            if (tabView.getLeft() >= visible.left && tabView.getRight() <= visible.right
+                    && ((TextView) tabView).getText().toString().equals(CountingAdapter.title(position))) {
+                tabView.performClick();
+                settle();
+                return;
+            }
+        }
+        throw new IllegalStateException("Tab " + position + " is not on screen");
+    }
+
+    /**
+     * Compares the counts of {@code scenario} with the stored baseline.
+     *
+     * @return a description of every counter above its baseline, or an empty string.
+     */
+    static String regressions(String scenario, Map<String, Integer> counts, Properties baseline) {
+        StringBuilder regressions = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            String key = scenario + "." + entry.getKey();
+            String expected = baseline.getProperty(key);
+            int limit = expected == null ? 0 : Integer.parseInt(expected.trim());
+            if (entry.getValue() > limit) {
+                regressions.append(key).append(": ").append(entry.getValue())
+                        .append(" > ").append(limit).append('\n');
+            }
+        }
+        return regressions.toString();
+    }
+
+    static Properties loadBaseline() throws IOException {
+        Properties baseline = new Properties();
+        InputStream in = FrameCostHarness.class.getClassLoader().getResourceAsStream(BASELINE_RESOURCE);
+        if (in != null) {
+            try {
+                baseline.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        return baseline;
+    }
+
+    static void storeBaseline(File file, Properties baseline) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            baseline.store(out, "Frame cost baseline, recorded with -DframeCost.record=true");
+        } finally {
+            out.close();
+        }
+    }
+
+    static class CountingTabLayout extends SlidingTabLayout {
+        CountingStrip strip;
+
+        CountingTabLayout(Context context) {
+            super(context);
+        }
+
+        @Override
+        SlidingTabStrip createTabStrip(Context context) {
+            strip = new CountingStrip(context);
+            return strip;
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            count("tabs.measure");
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int l, int t, int r, int b) {
+            count("tabs.layout");
+            super.onLayout(changed, l, t, r, b);
+        }
+
+        @Override
+        protected void onDraw(Canvas canvas) {
+            count("tabs.draw");
+            super.onDraw(canvas);
+        }
+
+        @Override
+        public void invalidate() {
+            count("tabs.invalidate");
+            super.invalidate();
+        }
+    }
+
+    static class CountingStrip extends SlidingTabStrip {
+        // Tab views bound so far; a plain field, so it can be read while allocations are measured
+        int binds;
+
+        CountingStrip(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void onViewAdded(View child) {
+            binds++;
+            super.onViewAdded(child);
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            count("strip.measure");
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int l, int t, int r, int b) {
+            count("strip.layout");
+            super.onLayout(changed, l, t, r, b);
+        }
+
+        @Override
+        protected void onDraw(Canvas canvas) {
+            count("strip.draw");
+            super.onDraw(canvas);
+        }
+
+        @Override
+        public void invalidate() {
+            count("strip.invalidate");
+            super.invalidate();
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void invalidate(Rect dirty) {
+            count("strip.invalidate");
+            super.invalidate(dirty);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void invalidate(int l, int t, int r, int b) {
+            count("strip.invalidate");
+            super.invalidate(l, t, r, b);
+        }
+    }
+
+    static class CountingPager extends LoopViewPager {
+        int scrollState = ViewPager.SCROLL_STATE_IDLE;
+        // Listener added last, i.e. the tab layout's once it is attached
+        ViewPager.OnPageChangeListener lastListener;
+
+        CountingPager(Context context) {
+            super(context);
+            addOnPageChangeListener(new ViewPager.SimpleOnPageChangeListener() {
+                @Override
+                public void onPageScrollStateChanged(int state) {
+                    scrollState = state;
+                }
+            });
+        }
+
+        @Override
+        public void addOnPageChangeListener(ViewPager.OnPageChangeListener listener) {
+            super.addOnPageChangeListener(listener);
+            lastListener = listener;
+        }
+
+        /**
+         * Report a scroll to the listeners the way a drag does, without moving the pages.
+         */
+        void dispatchScroll(int position, float offset, int offsetPixels) {
+            onPageScrolled(position, offset, offsetPixels);
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            count("pager.measure");
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int l, int t, int r, int b) {
+            count("pager.layout");
+            super.onLayout(changed, l, t, r, b);
+        }
+
+        @Override
+        protected void onDraw(Canvas canvas) {
+            count("pager.draw");
+            super.onDraw(canvas);
+        }
+
+        @Override
+        public void invalidate() {
+            count("pager.invalidate");
+            super.invalidate();
+        }
+    }
+
+    static class CountingAdapter extends PagerAdapter {
+        private final int pageCount;
+
+        CountingAdapter(int pageCount) {
+            this.pageCount = pageCount;
+        }
+
+        static String title(int position) {
+            return "Tab " + position;
+        }
+
+        @Override
+        public int getCount() {
+            return pageCount;
+        }
+
+        @Override
+        public CharSequence getPageTitle(int position) {
+            return title(position);
+        }
+
+        @Override
+        public Object instantiateItem(ViewGroup container, int position) {
+            count("adapter.instantiate");
+            TextView page = new TextView(container.getContext());
+            page.setText(title(position));
+            container.addView(page);
+            return page;
+        }
+
+        @Override
+        public void destroyItem(ViewGroup container, int position, Object object) {
+            count("adapter.destroy");
+            container.removeView((View) object);
+        }
+
+        @Override
+        public boolean isViewFromObject(View view, Object object) {
+            return view == object;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Counts the layout, draw and page churn of scripted swipes, flings and tab clicks. Every
+ * scenario must stay within fixed limits: no view is laid out or drawn more than once per frame
+ * (measured at most twice), and only the pages the scenario brings into the pager's window are
+ * instantiated or destroyed. Scenarios recorded in {@code frame_cost_baseline.properties} must
+ * also not cost more than recorded.
+ * <p>
+ * Run with {@code -DframeCost.record=true} to write the current counts as the new baseline.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class FrameCostTest {
+
+    private static final int PAGE_COUNT = 5;
+    private static final String[] VIEWS = {"tabs", "strip", "pager"};
+
+    private static final boolean RECORD = Boolean.getBoolean("frameCost.record");
+
+    private static Properties baseline;
+    private static Properties recorded;
+
+    @BeforeClass
+    public static void loadBaseline() throws Exception {
+        baseline = FrameCostHarness.loadBaseline();
+        recorded = new Properties();
+        recorded.putAll(baseline);
+    }
+
+    @AfterClass
+    public static void storeBaseline() throws Exception {
+        String dir = System.getProperty("frameCost.baselineDir");
+        if (RECORD && dir != null) {
+            FrameCostHarness.storeBaseline(new File(dir, FrameCostHarness.BASELINE_RESOURCE), recorded);
+        }
+    }
+
+    @Test
+    public void swipeForward() throws Exception {
+        FrameCostHarness harness = new FrameCostHarness(PAGE_COUNT);
+        harness.swipePager(-1, 10);
+        assertEquals(1, harness.pager.getCurrentItem());
+        check("swipeForward", harness.counts(), 1);
+    }
+
+    @Test
+    public void swipeBackAcrossSeam() throws Exception {
+        FrameCostHarness harness = new FrameCostHarness(PAGE_COUNT);
+        harness.swipePager(1, 10);
+        assertEquals(PAGE_COUNT - 1, harness.pager.getCurrentItem());
+        // The jump across the seam hands the live pages over
+        check("swipeBackAcrossSeam", harness.counts(), 1);
+    }
+
+    @Test
+    public void flingTabs() throws Exception {
+        FrameCostHarness harness = new FrameCostHarness(PAGE_COUNT);
+        harness.flingTabs(-300, 4);
+        check("flingTabs", harness.counts(), 0);
+    }
+
+    @Test
+    public void clickNextTab() throws Exception {
+        FrameCostHarness harness = new FrameCostHarness(PAGE_COUNT);
+        harness.clickTab(1);
+        assertEquals(1, harness.pager.getCurrentItem());
+        check("clickNextTab", harness.counts(), 1);
+    }
+
+    /**
+     * @param pageChurn pages the scenario may instantiate, and destroy, in the inner adapter.
+     */
+    private static void check(String scenario, Map<String, Integer> counts, int pageChurn) {
+        StringBuilder violations = new StringBuilder();
+        int layoutFrames = get(counts, "frames.layout");
+        int drawFrames = get(counts, "frames.draw");
+        for (String view : VIEWS) {
+            // A scroll view may measure its child a second time to fill the viewport
+            limit(violations, counts, view + ".measure", 2 * layoutFrames);
+            limit(violations, counts, view + ".layout", layoutFrames);
+            limit(violations, counts, view + ".draw", drawFrames);
+        }
+        limit(violations, counts, "adapter.instantiate", pageChurn);
+        limit(violations, counts, "adapter.destroy", pageChurn);
+        if (violations.length() > 0) {
+            throw new AssertionError("Frame cost of " + scenario + " exceeds its limits:\n" + violations);
+        }
+
+        if (RECORD) {
+            recorded.setProperty(scenario + ".recorded", "true");
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                recorded.setProperty(scenario + "." + entry.getKey(), String.valueOf(entry.getValue()));
+            }
+            return;
+        }
+        // 基準値が未記録のシナリオは上の固定の上限だけで判定する
+        if (baseline.getProperty(scenario + ".recorded") == null) {
+            return;
+        }
+        String regressions = FrameCostHarness.regressions(scenario, counts, baseline);
+        if (!regressions.isEmpty()) {
+            throw new AssertionError("Frame cost regressed:\n" + regressions);
+        }
+    }
+
+    private static int get(Map<String, Integer> counts, String key) {
+        Integer value = counts.get(key);
+        return value == null ? 0 : value;
+    }
+
+    private static void limit(StringBuilder violations, Map<String, Integer> counts, String key, int max) {
+        int value = get(counts, key);
+        if (value > max) {
+            violations.append(key).append(": ").append(value).append(" > ").append(max).append('\n');
+        }
+    }
+}
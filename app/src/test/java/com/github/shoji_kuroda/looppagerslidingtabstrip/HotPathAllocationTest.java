@@ -0,0 +1,160 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.support.v4.view.ViewPager;
+import android.view.Choreographer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Makes sure the work done for every scroll event and frame does not allocate, driving a real
+ * {@link SlidingTabLayout} and {@link LoopViewPager} through {@link FrameCostHarness}.
+ * <p>
+ * Frames in which the strip binds a tab view that scrolled into view are not counted; binding
+ * sets a title and is allowed to allocate.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class HotPathAllocationTest {
+
+    private static final int PAGE_COUNT = 5;
+    private static final int FRAMES = 120;
+    private static final int ATTEMPTS = 5;
+    // Real position the swipe starts from, away from the seam
+    private static final int START_POSITION = 1;
+
+    private final com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final long threadId = Thread.currentThread().getId();
+    private final Canvas canvas = new NullCanvas();
+    private final Choreographer.FrameCallback noFrame = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+        }
+    };
+
+    private FrameCostHarness harness;
+    private ViewPager.OnPageChangeListener tabListener;
+    // Bytes the measurement itself allocates
+    private long overhead;
+
+    @Before
+    public void setUp() throws Exception {
+        harness = new FrameCostHarness(PAGE_COUNT);
+        harness.pager.setCurrentItem(START_POSITION, false);
+        harness.settle();
+        tabListener = harness.pager.lastListener;
+        FrameCostHarness.setCounting(false);
+        overhead = Long.MAX_VALUE;
+        for (int i = 0; i < ATTEMPTS; i++) {
+            long start = bean.getThreadAllocatedBytes(threadId);
+            long end = bean.getThreadAllocatedBytes(threadId);
+            overhead = Math.min(overhead, end - start);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FrameCostHarness.setCounting(true);
+    }
+
+    @Test
+    public void tracingIsCompiledOutByDefault() throws Exception {
+        assertFalse(LoopTrace.ENABLED);
+    }
+
+    @Test
+    public void indicatorUpdatesDoNotAllocate() throws Exception {
+        assertEquals(0, allocatedBy(new Frame() {
+            @Override
+            public void run(int frame) {
+                harness.strip.onViewPagerPageChanged(START_POSITION, offsetAt(frame));
+            }
+        }, 0));
+    }
+
+    @Test
+    public void stripDrawDoesNotAllocate() throws Exception {
+        assertEquals(0, allocatedBy(new Frame() {
+            @Override
+            public void run(int frame) {
+                harness.strip.onDraw(canvas);
+            }
+        }, 0));
+    }
+
+    @Test
+    public void pagerScrollDoesNotAllocate() throws Exception {
+        final int position = LoopMath.toInnerPosition(START_POSITION);
+        final int width = harness.pager.getWidth();
+        // Each scroll posts a frame callback; what the Choreographer allocates for it is not ours
+        long posting = allocatedBy(new Frame() {
+            @Override
+            public void run(int frame) {
+                Choreographer.getInstance().postFrameCallback(noFrame);
+                Choreographer.getInstance().removeFrameCallback(noFrame);
+            }
+        }, 0) / FRAMES;
+        assertEquals(0, allocatedBy(new Frame() {
+            @Override
+            public void run(int frame) {
+                float offset = offsetAt(frame);
+                harness.pager.dispatchScroll(position, offset, (int) (offset * width));
+                // Applies the coalesced scroll right away instead of on the next frame
+                tabListener.onPageScrollStateChanged(ViewPager.SCROLL_STATE_DRAGGING);
+            }
+        }, posting));
+    }
+
+    private static float offsetAt(int frame) {
+        return 0.5f * frame / FRAMES;
+    }
+
+    /**
+     * Runs {@code frame} for every frame of a swipe once to warm up, so class loading and the
+     * first binds don't show up, then again while measuring.
+     *
+     * @param expected bytes every frame may allocate.
+     * @return bytes allocated beyond that.
+     */
+    private long allocatedBy(Frame frame, long expected) {
+        for (int i = 0; i < FRAMES; i++) {
+            frame.run(i);
+        }
+        long allocated = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            int binds = harness.strip.binds;
+            long start = bean.getThreadAllocatedBytes(threadId);
+            frame.run(i);
+            long end = bean.getThreadAllocatedBytes(threadId);
+            if (harness.strip.binds == binds) {
+                allocated += Math.max(0, end - start - overhead - expected);
+            }
+        }
+        return allocated;
+    }
+
+    private interface Frame {
+        void run(int frame);
+    }
+
+    /**
+     * Discards what the strip draws, so only the strip's own allocations are measured.
+     */
+    private static class NullCanvas extends Canvas {
+        @Override
+        public void drawRect(float left, float top, float right, float bottom, Paint paint) {
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LoopMathTest {
+
+    @Test
+    public void mirrorPagesMapToTheOppositeEnd() throws Exception {
+        assertEquals(4, LoopMath.toRealPosition(0, 5));
+        assertEquals(0, LoopMath.toRealPosition(1, 5));
+        assertEquals(4, LoopMath.toRealPosition(5, 5));
+        assertEquals(0, LoopMath.toRealPosition(6, 5));
+    }
+
+    @Test
+    public void emptyAdapterHasNoRealPosition() throws Exception {
+        // An empty adapter still leaves the wrapper with its two mirror pages
+        assertEquals(-1, LoopMath.toRealPosition(0, 0));
+        assertEquals(-1, LoopMath.toRealPosition(1, 0));
+    }
+
+    @Test
+    public void innerPositionRoundTrips() throws Exception {
+        for (int real = 0; real < 5; real++) {
+            assertEquals(real, LoopMath.toRealPosition(LoopMath.toInnerPosition(real), 5));
+        }
+    }
+}
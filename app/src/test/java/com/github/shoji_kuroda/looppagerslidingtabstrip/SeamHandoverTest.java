@@ -0,0 +1,113 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+import android.view.View;
+import android.widget.TextView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that jumping from a mirror page to the real page hands the live pages over instead of
+ * destroying and instantiating them again.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class SeamHandoverTest {
+
+    private static final int PAGE_COUNT = 5;
+
+    @Test
+    public void jumpFromMirrorKeepsLivePages() throws Exception {
+        FrameCostHarness harness = new FrameCostHarness(PAGE_COUNT);
+        harness.pager.setCurrentItem(0, false);
+        harness.settle();
+        // Wrapper positions 0, 1 and 2 are live: the mirror of the last page, the first and the second
+        View mirror = findPage(harness, PAGE_COUNT - 1);
+        View first = findPage(harness, 0);
+        Map<String, Integer> before = harness.counts();
+
+        harness.swipePager(1, 10);
+
+        assertEquals(PAGE_COUNT - 1, harness.pager.getCurrentItem());
+        assertSame(mirror, findPage(harness, PAGE_COUNT - 1));
+        assertSame(first, findPage(harness, 0));
+        Map<String, Integer> after = harness.counts();
+        // Only the second page leaves the window, and only the page before the last one enters it
+        assertEquals(1, delta(before, after, "adapter.destroy"));
+        assertEquals(1, delta(before, after, "adapter.instantiate"));
+    }
+
+    @Test
+    public void jumpFromRightMirrorReplacesCachedPages() throws Exception {
+        // Wrapper positions above the Integer cache, so position lookups can't rely on boxing
+        int pageCount = 200;
+        FrameCostHarness harness = new FrameCostHarness(pageCount);
+        harness.pager.setBoundaryCaching(true);
+        harness.pager.setBoundaryCacheCapacity(4);
+        harness.pager.setCurrentItem(pageCount - 1, false);
+        harness.settle();
+        View last = findPage(harness, pageCount - 1);
+        View mirror = findPage(harness, 0);
+        // Park the pages around the first real page in the cache, where the live ones will move
+        LoopPagerAdapterWrapper wrapper = harness.pager.getWrapperAdapter();
+        for (int position = 0; position <= 2; position++) {
+            wrapper.prefetch(harness.pager, position);
+        }
+
+        harness.swipePager(-1, 10);
+
+        assertEquals(0, harness.pager.getCurrentItem());
+        // The cached duplicates were destroyed, so every page is attached once
+        assertSame(last, findPage(harness, pageCount - 1));
+        assertSame(mirror, findPage(harness, 0));
+        findPage(harness, 1);
+    }
+
+    @Test
+    public void prefetchLeavesHandedOverPagesAlone() throws Exception {
+        FrameCostHarness harness = new FrameCostHarness(PAGE_COUNT);
+        harness.pager.setCurrentItem(0, false);
+        harness.settle();
+        Map<String, Integer> before = harness.counts();
+        // Schedules the seam targets for the first page
+        harness.pager.setBoundaryCaching(true);
+        while (harness.pager.seamPrefetcher.queueIdle()) {
+            // Runs every idle slot
+        }
+
+        harness.swipePager(1, 10);
+
+        assertEquals(PAGE_COUNT - 1, harness.pager.getCurrentItem());
+        Map<String, Integer> after = harness.counts();
+        // Only the page before the last one is prefetched; the mirror and the first page are
+        // handed over across the seam, so no prefetched duplicate of them is destroyed
+        assertEquals(1, delta(before, after, "adapter.instantiate"));
+        assertEquals(0, delta(before, after, "adapter.destroy"));
+    }
+
+    private static View findPage(FrameCostHarness harness, int position) {
+        View found = null;
+        for (int i = 0; i < harness.pager.getChildCount(); i++) {
+            View child = harness.pager.getChildAt(i);
+            if (((TextView) child).getText().toString().equals(FrameCostHarness.CountingAdapter.title(position))) {
+                assertNull("Page " + position + " is shown twice", found);
+                found = child;
+            }
+        }
+        return found;
+    }
+
+    private static int delta(Map<String, Integer> before, Map<String, Integer> after, String key) {
+        Integer from = before.get(key);
+        Integer to = after.get(key);
+        return (to == null ? 0 : to) - (from == null ? 0 : from);
+    }
+}
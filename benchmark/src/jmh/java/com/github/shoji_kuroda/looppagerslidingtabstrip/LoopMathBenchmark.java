@@ -0,0 +1,194 @@
+package com.github.shoji_kuroda.looppagerslidingtabstrip;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the math run for every scroll event and frame. Each invocation replays a stream
+ * of {@link #STREAM_LENGTH} synthetic scroll events, generated with a fixed seed to look like
+ * swipes that cross the seam, so scores are per event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LoopMathBenchmark {
+
+    private static final int STREAM_LENGTH = 4096;
+    private static final int FRAMES_PER_SWIPE = 20;
+
+    @Param({"4", "40", "1000"})
+    public int tabCount;
+
+    private int[] innerPositions;
+    private float[] offsets;
+    private int[] tabOffsets;
+    private int[] hitXs;
+    private int[] colors;
+    private int[] tabColors;
+    private ColorGradientTable gradient;
+    private TabWidthIndex tabWidths;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+
+        // Swipes of FRAMES_PER_SWIPE frames each, mostly next to the current page and biased
+        // towards the two mirror pages at 0 and tabCount + 1
+        innerPositions = new int[STREAM_LENGTH];
+        offsets = new float[STREAM_LENGTH];
+        int position = 1;
+        for (int i = 0; i < STREAM_LENGTH; i++) {
+            int frame = i % FRAMES_PER_SWIPE;
+            if (frame == 0) {
+                int step = random.nextInt(4) == 0 ? tabCount : 1;
+                position = (position + (random.nextBoolean() ? step : -step) + tabCount + 2) % (tabCount + 2);
+            }
+            innerPositions[i] = position;
+            offsets[i] = frame / (float) FRAMES_PER_SWIPE;
+        }
+
+        tabOffsets = new int[tabCount + 1];
+        for (int i = 0; i < tabCount; i++) {
+            tabOffsets[i + 1] = tabOffsets[i] + 80 + random.nextInt(120);
+        }
+        tabWidths = new TabWidthIndex();
+        tabWidths.reset(tabCount, 0);
+        for (int i = 0; i < tabCount; i++) {
+            tabWidths.set(i, tabOffsets[i + 1] - tabOffsets[i]);
+        }
+        hitXs = new int[STREAM_LENGTH];
+        for (int i = 0; i < STREAM_LENGTH; i++) {
+            hitXs[i] = random.nextInt(tabOffsets[tabCount]);
+        }
+
+        colors = new int[]{0xFF33B5E5, 0xFFAA66CC, 0xFF99CC00, 0xFFFFBB33, 0xFFFF4444};
+        tabColors = new int[tabCount];
+        for (int i = 0; i < tabCount; i++) {
+            tabColors[i] = LoopMath.indicatorColor(colors, i);
+        }
+        gradient = new ColorGradientTable(tabColors, false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAM_LENGTH)
+    public void toRealPosition(Blackhole blackhole) {
+        for (int i = 0; i < STREAM_LENGTH; i++) {
+            blackhole.consume(LoopMath.toRealPosition(innerPositions[i], tabCount));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAM_LENGTH)
+    public void toRealAndBack(Blackhole blackhole) {
+        for (int i = 0; i < STREAM_LENGTH; i++) {
+            int real = LoopMath.toRealPosition(innerPositions[i], tabCount);
+            blackhole.consume(LoopMath.toInnerPosition(real));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAM_LENGTH)
+    public void blendColors(Blackhole blackhole) {
+        for (int i = 0; i < STREAM_LENGTH; i++) {
+            int position = LoopMath.toRealPosition(innerPositions[i], tabCount);
+            int color = LoopMath.indicatorColor(colors, position);
+            int nextColor = LoopMath.indicatorColor(colors, position + 1);
+            blackhole.consume(LoopMath.blendColors(nextColor, color, offsets[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAM_LENGTH)
+    public void gradientColor(Blackhole blackhole) {
+        for (int i = 0; i < STREAM_LENGTH; i++) {
+            int position = LoopMath.toRealPosition(innerPositions[i], tabCount);
+            blackhole.consume(gradient.colorAt(position, offsets[i]));
+        }
+    }
+
+    @Benchmark
+    public void buildLinearGradient(Blackhole blackhole) {
+        // Paid once per color or tab count change, not per frame
+        blackhole.consume(new ColorGradientTable(tabColors, true));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAM_LENGTH)
+    public void indicatorColor(Blackhole blackhole) {
+        for (int i = 0; i < STREAM_LENGTH; i++) {
+            blackhole.consume(LoopMath.indicatorColor(colors, innerPositions[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAM_LENGTH)
+    public void hitTest(Blackhole blackhole) {
+        for (int i = 0; i < STREAM_LENGTH; i++) {
+            blackhole.consume(indexOf(tabOffsets, tabCount, hitXs[i]));
+        }
+    }
+
+    /**
+     * Binary search over a plain array of tab offsets, as the strip did before it indexed its
+     * tab widths; kept as the reference for {@link #indexedHitTest(Blackhole)}.
+     *
+     * @param offsets left edge of every tab, followed by the right edge of the last one.
+     * @return the tab index, clamped to {@code [0, count)}.
+     */
+    private static int indexOf(int[] offsets, int count, int x) {
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= x) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAM_LENGTH)
+    public void indexedHitTest(Blackhole blackhole) {
+        for (int i = 0; i < STREAM_LENGTH; i++) {
+            blackhole.consume(tabWidths.indexOf(hitXs[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAM_LENGTH)
+    public void indexedTabBounds(Blackhole blackhole) {
+        // What the strip pays per frame for the current and the next tab
+        for (int i = 0; i < STREAM_LENGTH; i++) {
+            int position = LoopMath.toRealPosition(innerPositions[i], tabCount);
+            int left = tabWidths.offsetOf(position);
+            blackhole.consume(left + tabWidths.get(position));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAM_LENGTH)
+    public void indicatorBounds(Blackhole blackhole) {
+        final int contentWidth = tabOffsets[tabCount];
+        for (int i = 0; i < STREAM_LENGTH; i++) {
+            int position = LoopMath.toRealPosition(innerPositions[i], tabCount);
+            int next = (position + 1) % tabCount;
+            int wrap = next == 0 ? contentWidth : 0;
+            blackhole.consume(LoopMath.lerp(tabOffsets[position], tabOffsets[next] + wrap, offsets[i]));
+            blackhole.consume(LoopMath.lerp(tabOffsets[position + 1], tabOffsets[next + 1] + wrap, offsets[i]));
+        }
+    }
+}